@@ -0,0 +1,64 @@
+package org.fiware.marinerae2e;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.time.Instant;
+import java.time.ZoneId;
+import java.time.format.DateTimeFormatter;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Cost of formatting the TimeInstant of the generated samples.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class DateFormatBenchmark {
+
+	// pattern used when seeding the historical data
+	private static final String PATTERN = "yyyy-MM-dd'T'hh:mm:ssZ";
+
+	private final DateTimeFormatter patternFormatter = DateTimeFormatter.ofPattern(PATTERN).withZone(ZoneId.systemDefault());
+	private Instant sampleTime = Instant.parse("2022-06-01T10:15:00Z");
+
+	/**
+	 * The formatter is created for every sample.
+	 */
+	@Benchmark
+	public String patternFormatterPerSample() {
+		return DateTimeFormatter.ofPattern(PATTERN).withZone(ZoneId.systemDefault()).format(nextSampleTime());
+	}
+
+	/**
+	 * The formatter is created once and reused for all samples.
+	 */
+	@Benchmark
+	public String patternFormatter() {
+		return patternFormatter.format(nextSampleTime());
+	}
+
+	/**
+	 * Formatting as used by the load generation and latency measurement.
+	 */
+	@Benchmark
+	public String isoInstant() {
+		return DateTimeFormatter.ISO_INSTANT.format(nextSampleTime());
+	}
+
+	// a new time for every invocation, to not format a constant
+	private Instant nextSampleTime() {
+		sampleTime = sampleTime.plusSeconds(300);
+		return sampleTime;
+	}
+}
@@ -0,0 +1,134 @@
+package org.fiware.marinerae2e;
+
+import okhttp3.Call;
+import okhttp3.Callback;
+import okhttp3.HttpUrl;
+import okhttp3.MediaType;
+import okhttp3.OkHttpClient;
+import okhttp3.Request;
+import okhttp3.RequestBody;
+import okhttp3.Response;
+import okhttp3.mockwebserver.Dispatcher;
+import okhttp3.mockwebserver.MockResponse;
+import okhttp3.mockwebserver.MockWebServer;
+import okhttp3.mockwebserver.RecordedRequest;
+import org.fiware.marinerae2e.HttpClients.Endpoint;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.IOException;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Overhead of the suite's http client when sending entity upserts. A local MockWebServer stands in for Orion and
+ * answers immediately, so that the measured time is spent in the client and the loopback connection.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class DispatchBenchmark {
+
+	private static final MediaType JSON = MediaType.get("application/json");
+	private static final EntityTemplate ENTITY_TEMPLATE = EntityTemplate.compile("AirQualityObserved", "temperature", "humidity", "co", "no2");
+
+	// number of requests sent concurrently in the asynchronous benchmark
+	@Param({"50"})
+	public int batchSize;
+
+	private MockWebServer orion;
+	private OkHttpClient httpClient;
+	private HttpUrl upsertUrl;
+	private byte[] entity;
+
+	@Setup(Level.Trial)
+	public void startOrion() throws IOException {
+		orion = new MockWebServer();
+		orion.setDispatcher(new Dispatcher() {
+			@Override
+			public MockResponse dispatch(RecordedRequest recordedRequest) {
+				return new MockResponse().setResponseCode(204);
+			}
+		});
+		orion.start();
+		upsertUrl = orion.url("/v2/entities").newBuilder()
+				.addEncodedQueryParameter("options", "upsert")
+				.build();
+		entity = ENTITY_TEMPLATE.toBytes("test-air-quality", "2022-06-01T10:15:00Z", 17.3, 11.4, 0.52, 0.731);
+		// all requests of a batch should be in flight at once, without raising the limits of the shared client
+		okhttp3.Dispatcher clientDispatcher = new okhttp3.Dispatcher();
+		clientDispatcher.setMaxRequests(batchSize);
+		clientDispatcher.setMaxRequestsPerHost(batchSize);
+		httpClient = HttpClients.get(Endpoint.BROKER).newBuilder()
+				.dispatcher(clientDispatcher)
+				.build();
+	}
+
+	@TearDown(Level.Trial)
+	public void stopOrion() throws IOException {
+		httpClient.dispatcher().executorService().shutdown();
+		orion.shutdown();
+	}
+
+	/**
+	 * One blocking upsert.
+	 */
+	@Benchmark
+	public int executeSync() throws IOException {
+		return HttpClients.executeForCode(httpClient, getUpsert());
+	}
+
+	/**
+	 * A batch of asynchronous upserts, measured until all of them are answered.
+	 */
+	@Benchmark
+	public int enqueueBatch() throws InterruptedException {
+		CountDownLatch finished = new CountDownLatch(batchSize);
+		AtomicInteger successful = new AtomicInteger();
+		for (int i = 0; i < batchSize; i++) {
+			httpClient.newCall(getUpsert()).enqueue(new Callback() {
+				@Override
+				public void onFailure(Call call, IOException e) {
+					finished.countDown();
+				}
+
+				@Override
+				public void onResponse(Call call, Response response) {
+					try (response) {
+						if (response.isSuccessful()) {
+							successful.incrementAndGet();
+						}
+					} finally {
+						finished.countDown();
+					}
+				}
+			});
+		}
+		finished.await();
+		return successful.get();
+	}
+
+	private Request getUpsert() {
+		return new Request.Builder()
+				.url(upsertUrl)
+				.addHeader("Fiware-Service", "AirQuality")
+				.addHeader("Fiware-ServicePath", "/alcantarilla")
+				.method("POST", RequestBody.create(entity, JSON))
+				.build();
+	}
+}
@@ -0,0 +1,164 @@
+package org.fiware.marinerae2e;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Compares the precompiled payload templates with the String.format based construction, the suite used before. Run
+ * with "-prof gc" to also compare the allocation rate.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class PayloadBenchmark {
+
+	private static final EntityTemplate ENTITY_TEMPLATE = EntityTemplate.compile("AirQualityObserved", "temperature", "humidity", "co", "no2");
+	private static final SubscriptionTemplate SUBSCRIPTION_TEMPLATE = SubscriptionTemplate.compile("AQ - Orion to QuantumLeap subscription",
+			"AirQualityObserved", List.of("temperature"), List.of("CO", "NO2", "humidity", "temperature"),
+			List.of("dateCreated", "dateModified", "TimeInstant"));
+
+	private final String entityId = "test-air-quality";
+	private final String timeInstant = "2022-06-01T10:15:00+0200";
+	private final double temperature = 17.341234;
+	private final double humidity = 11.4;
+	private final double co = 0.52;
+	private final double no2 = 0.731;
+	private final String quantumLeapUrl = "http://quantumleap-quantumleap:8668";
+	private final String notificationUrl = quantumLeapUrl + "/v2/notify";
+	private final String fiwareService = "AirQuality";
+	private final String fiwareServicePath = "/alcantarilla";
+	// reused between invocations, as done when rendering many payloads on one thread
+	private final PayloadBuffer buffer = new PayloadBuffer();
+
+	@Benchmark
+	public String entityStringFormat() {
+		return getTestEntity(entityId, temperature, humidity, co, no2, timeInstant);
+	}
+
+	@Benchmark
+	public String entityTemplateToString() {
+		return ENTITY_TEMPLATE.toString(entityId, timeInstant, temperature, humidity, co, no2);
+	}
+
+	@Benchmark
+	public byte[] entityTemplateToBytes() {
+		return ENTITY_TEMPLATE.toBytes(entityId, timeInstant, temperature, humidity, co, no2);
+	}
+
+	@Benchmark
+	public int entityTemplateRender() {
+		ENTITY_TEMPLATE.render(buffer.reset(), entityId, timeInstant, temperature, humidity, co, no2);
+		return buffer.size();
+	}
+
+	@Benchmark
+	public String subscriptionStringFormat() {
+		return getSubscriptionString(quantumLeapUrl, fiwareService, fiwareServicePath);
+	}
+
+	@Benchmark
+	public int subscriptionTemplateRender() {
+		SUBSCRIPTION_TEMPLATE.render(buffer.reset(), notificationUrl, fiwareService, fiwareServicePath);
+		return buffer.size();
+	}
+
+	// baseline: payload construction of the StepDefinitions before the templates were introduced
+	private static String getSubscriptionString(String quantumLeapAddress, String fiwareService, String fiwareServicePath) {
+		return String.format("{\n" +
+				"    \"description\": \"AQ - Orion to QuantumLeap subscription\",\n" +
+				"    \"subject\": {\n" +
+				"        \"entities\": [\n" +
+				"            {\n" +
+				"                \"idPattern\": \".*\",\n" +
+				"                \"type\": \"AirQualityObserved\"\n" +
+				"            }\n" +
+				"        ],\n" +
+				"        \"condition\": {\n" +
+				"            \"attrs\": [\n" +
+				"                \"temperature\"\n" +
+				"            ]\n" +
+				"        }\n" +
+				"    },\n" +
+				"    \"notification\": {\n" +
+				"        \"httpCustom\": {\n" +
+				"            \"url\": \"%s/v2/notify\",\n" +
+				"        	 \"headers\" : { " +
+				"				\"fiware-service\" : \"%s\",		" +
+				"				\"fiware-servicepath\":\"%s\"" +
+				"			 }\n " +
+				"        },\n" +
+				"        \"attrs\": [\n" +
+				"            \"CO\",\n" +
+				"            \"NO2\",\n" +
+				"            \"humidity\",\n" +
+				"            \"temperature\"\n" +
+				"        ],\n" +
+				"        \"metadata\": [\n" +
+				"            \"dateCreated\",\n" +
+				"            \"dateModified\",\n" +
+				"            \"TimeInstant\"\n" +
+				"        ]\n" +
+				"    }\n" +
+				"}", quantumLeapAddress, fiwareService, fiwareServicePath);
+	}
+
+	private static String getTestEntity(String id, double temperature, double humidity, double co, double no2, String timeInstant) {
+		return String.format("{\n" +
+				"  \"type\": \"AirQualityObserved\",\n" +
+				"  \"id\": \"%s\",\n" +
+				"  \"temperature\": {\n" +
+				"  	 \"type\": \"Number\", " +
+				"    \"value\": %s,\n" +
+				"    \"metadata\": {" +
+				"		\"TimeInstant\": {" +
+				" 			\"type\":\"DateTime\", " +
+				" 			\"value\":\"%s\" " +
+				" 		}\n" +
+				"	 }\n" +
+				"  },\n" +
+				"  \"humidity\": {\n" +
+				"  	 \"type\": \"Number\", " +
+				"    \"value\": %s,\n" +
+				"    \"metadata\": {" +
+				"		\"TimeInstant\": {" +
+				" 			\"type\":\"DateTime\", " +
+				" 			\"value\":\"%s\" " +
+				" 		}\n" +
+				"	 }\n" +
+				"  },\n" +
+				"  \"co\": {\n" +
+				"  	 \"type\": \"Number\", " +
+				"    \"value\": %s,\n" +
+				"    \"metadata\": {" +
+				"		\"TimeInstant\": {" +
+				" 			\"type\":\"DateTime\", " +
+				" 			\"value\":\"%s\" " +
+				" 		}\n" +
+				"	 }\n" +
+				"  },\n" +
+				"  \"no2\": {\n" +
+				"  	 \"type\": \"Number\", " +
+				"    \"value\": %s,\n" +
+				"    \"metadata\": {" +
+				"		\"TimeInstant\": {" +
+				" 			\"type\":\"DateTime\", " +
+				" 			\"value\":\"%s\" " +
+				" 		}\n" +
+				"	 }\n" +
+				"  }\n" +
+				"}", id, temperature, timeInstant, humidity, timeInstant, co, timeInstant, no2, timeInstant);
+	}
+}
@@ -0,0 +1,76 @@
+package org.fiware.marinerae2e;
+
+import okhttp3.HttpUrl;
+import okhttp3.Request;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Cost of building the requests of the seeding loop, depending on how their url is created.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class UrlBenchmark {
+
+	private final String brokerUrl = "http://orion-ld:1026";
+	private final String fiwareService = "AirQuality";
+	private final String fiwareServicePath = "/alcantarilla";
+	private final HttpUrl batchUpdateUrl = HttpUrl.get(brokerUrl).newBuilder()
+			.addPathSegment("v2")
+			.addPathSegment("op")
+			.addPathSegment("update")
+			.build();
+
+	/**
+	 * The url is formatted and parsed for every request.
+	 */
+	@Benchmark
+	public Request formattedUrl() {
+		return new Request.Builder()
+				.url(String.format("%s/v2/op/update", brokerUrl))
+				.addHeader("Fiware-Service", fiwareService)
+				.addHeader("Fiware-ServicePath", fiwareServicePath)
+				.build();
+	}
+
+	/**
+	 * The url is built from the base url for every request.
+	 */
+	@Benchmark
+	public Request builtUrl() {
+		return new Request.Builder()
+				.url(HttpUrl.get(brokerUrl).newBuilder()
+						.addPathSegment("v2")
+						.addPathSegment("op")
+						.addPathSegment("update")
+						.build())
+				.addHeader("Fiware-Service", fiwareService)
+				.addHeader("Fiware-ServicePath", fiwareServicePath)
+				.build();
+	}
+
+	/**
+	 * The url is built once and reused, as done by the EntitySeeder.
+	 */
+	@Benchmark
+	public Request reusedUrl() {
+		return new Request.Builder()
+				.url(batchUpdateUrl)
+				.addHeader("Fiware-Service", fiwareService)
+				.addHeader("Fiware-ServicePath", fiwareServicePath)
+				.build();
+	}
+}
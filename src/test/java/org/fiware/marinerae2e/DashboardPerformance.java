@@ -0,0 +1,263 @@
+package org.fiware.marinerae2e;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.openqa.selenium.JavascriptExecutor;
+import org.openqa.selenium.WebDriver;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.function.Function;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import java.util.stream.Collectors;
+
+/**
+ * Captures the browser-side performance of grafana dashboards through the performance api of the page: navigation
+ * timing for full page loads, resource timing of the panel queries and the js heap. An observer, installed into the
+ * page, attributes the panel queries to their panels(via grafana's X-Panel-Id header) and tracks the panel loading
+ * indicators. The observer survives navigations inside of grafana, queries of a full page load can only be attributed
+ * to the dashboard.
+ */
+public class DashboardPerformance {
+
+	private static final ObjectMapper OBJECT_MAPPER = new ObjectMapper();
+	private static final Pattern DASHBOARD_UID_PATTERN = Pattern.compile("/d/([^/?#]+)");
+	private static final String QUERY_URL_PATTERN = "/\\/api\\/(ds|tsdb)\\/query/";
+	private static final String PANEL_LOADING_SELECTOR = ".panel-loading, [aria-label='Panel loading bar'], [data-testid='panel-loading-bar']";
+
+	// installs the observer once per document, without a mark the document is measured from its navigation start
+	private static final String INSTALL_SCRIPT = "if (!window.__e2e) {" +
+			"  window.__e2e = {mark: null, queries: [], lastLoading: 0};" +
+			"  performance.setResourceTimingBufferSize(10000);" +
+			"  const originalFetch = window.fetch;" +
+			"  window.fetch = function(input, init) {" +
+			"    const promise = originalFetch.apply(this, arguments);" +
+			"    const url = typeof input === 'string' ? input : (input && input.url) || String(input);" +
+			"    if (!" + QUERY_URL_PATTERN + ".test(url)) { return promise; }" +
+			"    const headers = (init && init.headers) || (input && input.headers);" +
+			"    const panelId = headers ? (typeof headers.get === 'function' ? headers.get('X-Panel-Id') : headers['X-Panel-Id']) : null;" +
+			"    const query = {panelId: panelId ? String(panelId) : null, start: performance.now(), end: -1, bytes: 0};" +
+			"    window.__e2e.queries.push(query);" +
+			"    promise.then(response => response.clone().arrayBuffer())" +
+			"      .then(body => { query.end = performance.now(); query.bytes = body.byteLength; }, () => { query.end = performance.now(); });" +
+			"    return promise;" +
+			"  };" +
+			"  new MutationObserver(() => {" +
+			"    if (document.querySelector(\"" + PANEL_LOADING_SELECTOR + "\")) { window.__e2e.lastLoading = performance.now(); }" +
+			"  }).observe(document.documentElement, {childList: true, subtree: true});" +
+			"}";
+	private static final String MARK_SCRIPT = INSTALL_SCRIPT + "window.__e2e.mark = performance.now();";
+	// all times relative to the mark, navigation timing only for full page loads
+	private static final String CAPTURE_SCRIPT = INSTALL_SCRIPT +
+			"const e2e = window.__e2e;" +
+			"const fullLoad = e2e.mark === null;" +
+			"const mark = fullLoad ? 0 : e2e.mark;" +
+			"const navigation = fullLoad ? performance.getEntriesByType('navigation')[0] : null;" +
+			"return JSON.stringify({" +
+			"  fullLoad: fullLoad," +
+			"  ttfb: navigation ? navigation.responseStart : -1," +
+			"  domContentLoaded: navigation ? navigation.domContentLoadedEventEnd : -1," +
+			"  load: navigation ? navigation.loadEventEnd : -1," +
+			"  lastLoading: e2e.lastLoading >= mark ? e2e.lastLoading - mark : 0," +
+			"  resources: performance.getEntriesByType('resource')" +
+			"    .filter(r => r.startTime >= mark && " + QUERY_URL_PATTERN + ".test(r.name))" +
+			"    .map(r => ({end: r.responseEnd - mark, bytes: r.transferSize})), " +
+			"  queries: e2e.queries.filter(q => q.start >= mark)" +
+			"    .map(q => ({panelId: q.panelId, duration: q.end < 0 ? -1 : q.end - q.start, end: q.end < 0 ? -1 : q.end - mark, bytes: q.bytes}))," +
+			"  heap: performance.memory ? performance.memory.usedJSHeapSize : -1" +
+			"});";
+
+	private final WebDriver webDriver;
+	// resolves the panel titles of a dashboard, by panel id
+	private final Function<String, Map<String, String>> panelTitleResolver;
+	private final Map<String, Map<String, String>> panelTitles = new LinkedHashMap<>();
+	private final List<DashboardTiming> timings = new ArrayList<>();
+
+	public DashboardPerformance(WebDriver webDriver, Function<String, Map<String, String>> panelTitleResolver) {
+		this.webDriver = webDriver;
+		this.panelTitleResolver = panelTitleResolver;
+	}
+
+	/**
+	 * Marks the start of a navigation inside of grafana. Full page loads are measured from their navigation start.
+	 */
+	public void start() {
+		((JavascriptExecutor) webDriver).executeScript(MARK_SCRIPT);
+	}
+
+	/**
+	 * Captures the timings of the current dashboard, to be called once all its panels are loaded.
+	 *
+	 * @param step name of the step that navigated to the dashboard
+	 * @return the captured timing
+	 */
+	public DashboardTiming capture(String step) {
+		JsonNode capture;
+		try {
+			capture = OBJECT_MAPPER.readTree((String) ((JavascriptExecutor) webDriver).executeScript(CAPTURE_SCRIPT));
+		} catch (IOException e) {
+			throw new UncheckedIOException("Browser returned invalid performance data.", e);
+		}
+		Matcher uidMatcher = DASHBOARD_UID_PATTERN.matcher(webDriver.getCurrentUrl());
+		String dashboardUid = uidMatcher.find() ? uidMatcher.group(1) : webDriver.getCurrentUrl();
+		Map<String, String> titles = panelTitles.computeIfAbsent(dashboardUid, panelTitleResolver);
+
+		// the dashboard is rendered, when the last query was answered and no panel showed its loading indicator anymore
+		double renderedMs = Math.max(capture.path("lastLoading").asDouble(), capture.path("load").asDouble());
+		long queryBytes = 0;
+		for (JsonNode resource : capture.path("resources")) {
+			renderedMs = Math.max(renderedMs, resource.path("end").asDouble());
+			queryBytes += resource.path("bytes").asLong();
+		}
+		Map<String, PanelQueries> panels = new LinkedHashMap<>();
+		for (JsonNode query : capture.path("queries")) {
+			renderedMs = Math.max(renderedMs, query.path("end").asDouble());
+			String panelId = query.path("panelId").asText("unknown");
+			panels.computeIfAbsent(panelId, id -> new PanelQueries(Optional.ofNullable(titles.get(id)).orElse(String.format("panel %s", id))))
+					.add(query.path("duration").asDouble(), query.path("bytes").asLong());
+		}
+
+		DashboardTiming timing = new DashboardTiming(step, dashboardUid, capture.path("fullLoad").asBoolean(),
+				capture.path("ttfb").asDouble(), capture.path("domContentLoaded").asDouble(), renderedMs,
+				capture.path("resources").size(), queryBytes, capture.path("heap").asLong(), new ArrayList<>(panels.values()));
+		PerformanceReport.record(PerformanceReport.Category.DASHBOARD, String.format("%s render", dashboardUid), timing.getRendered());
+		timing.getPanels().forEach(panel -> PerformanceReport.record(PerformanceReport.Category.DASHBOARD,
+				String.format("%s panel %s", dashboardUid, panel.getTitle()), Duration.ofNanos((long) (panel.getSlowestMs() * 1_000_000))));
+		timings.add(timing);
+		return timing;
+	}
+
+	public List<DashboardTiming> getTimings() {
+		return List.copyOf(timings);
+	}
+
+	/**
+	 * Checks all captured dashboards against their budgets.
+	 *
+	 * @param renderBudget  default budget for a dashboard to render all its panels
+	 * @param renderBudgets budgets of single dashboards, by uid
+	 * @param queryBudget   budget for the slowest panel query
+	 * @param heapBudgetMb  budget for the used js heap in MB
+	 * @return descriptions of all exceeded budgets
+	 */
+	public List<String> getBudgetViolations(Duration renderBudget, Map<String, Duration> renderBudgets, Duration queryBudget,
+											long heapBudgetMb) {
+		List<String> violations = new ArrayList<>();
+		for (DashboardTiming timing : timings) {
+			Duration dashboardBudget = renderBudgets.getOrDefault(timing.getDashboardUid(), renderBudget);
+			if (timing.getRendered().compareTo(dashboardBudget) > 0) {
+				violations.add(String.format("%s rendered in %s ms, budget is %s ms.", timing.getStep(), timing.getRendered().toMillis(),
+						dashboardBudget.toMillis()));
+			}
+			timing.getPanels().stream()
+					.filter(panel -> panel.getSlowestMs() > queryBudget.toMillis())
+					.forEach(panel -> violations.add(String.format("%s: queries of %s took %.0f ms, budget is %s ms.", timing.getStep(),
+							panel.getTitle(), panel.getSlowestMs(), queryBudget.toMillis())));
+			if (timing.getHeapMb() > heapBudgetMb) {
+				violations.add(String.format("%s used %s MB of js heap, budget is %s MB.", timing.getStep(), timing.getHeapMb(), heapBudgetMb));
+			}
+		}
+		return violations;
+	}
+
+	/**
+	 * Browser-side timing of a single dashboard visit. Times are in milliseconds, relative to the start of the navigation.
+	 */
+	public static class DashboardTiming {
+
+		private final String step;
+		private final String dashboardUid;
+		private final boolean fullLoad;
+		private final double ttfbMs;
+		private final double domContentLoadedMs;
+		private final double renderedMs;
+		private final int queryCount;
+		private final long queryBytes;
+		private final long heapBytes;
+		private final List<PanelQueries> panels;
+
+		public DashboardTiming(String step, String dashboardUid, boolean fullLoad, double ttfbMs, double domContentLoadedMs,
+							   double renderedMs, int queryCount, long queryBytes, long heapBytes, List<PanelQueries> panels) {
+			this.step = step;
+			this.dashboardUid = dashboardUid;
+			this.fullLoad = fullLoad;
+			this.ttfbMs = ttfbMs;
+			this.domContentLoadedMs = domContentLoadedMs;
+			this.renderedMs = renderedMs;
+			this.queryCount = queryCount;
+			this.queryBytes = queryBytes;
+			this.heapBytes = heapBytes;
+			this.panels = panels;
+		}
+
+		public String getStep() {
+			return step;
+		}
+
+		public String getDashboardUid() {
+			return dashboardUid;
+		}
+
+		public Duration getRendered() {
+			return Duration.ofNanos((long) (renderedMs * 1_000_000));
+		}
+
+		public long getHeapMb() {
+			return heapBytes < 0 ? 0 : heapBytes / (1024 * 1024);
+		}
+
+		public List<PanelQueries> getPanels() {
+			return panels;
+		}
+
+		@Override
+		public String toString() {
+			String navigation = fullLoad ? String.format("full load(ttfb %.0f ms, dom content loaded %.0f ms)", ttfbMs, domContentLoadedMs) : "in-app navigation";
+			String heap = heapBytes < 0 ? "unknown" : String.format("%s MB", getHeapMb());
+			String panelBreakdown = panels.isEmpty() ? "not attributed" : panels.stream().map(PanelQueries::toString).collect(Collectors.joining(", "));
+			return String.format("%s(%s): %s, all panels rendered after %.0f ms, %s queries with %s bytes, js heap %s - panels: %s",
+					step, dashboardUid, navigation, renderedMs, queryCount, queryBytes, heap, panelBreakdown);
+		}
+	}
+
+	/**
+	 * The queries of a single panel.
+	 */
+	public static class PanelQueries {
+
+		private final String title;
+		private int count;
+		private double slowestMs;
+		private long bytes;
+
+		public PanelQueries(String title) {
+			this.title = title;
+		}
+
+		private void add(double durationMs, long queryBytes) {
+			count++;
+			slowestMs = Math.max(slowestMs, durationMs);
+			bytes += queryBytes;
+		}
+
+		public String getTitle() {
+			return title;
+		}
+
+		public double getSlowestMs() {
+			return slowestMs;
+		}
+
+		@Override
+		public String toString() {
+			return String.format("%s: %s queries, slowest %.0f ms, %s bytes", title, count, slowestMs, bytes);
+		}
+	}
+}
@@ -0,0 +1,160 @@
+package org.fiware.marinerae2e;
+
+import okhttp3.HttpUrl;
+import okhttp3.MediaType;
+import okhttp3.OkHttpClient;
+import okhttp3.Request;
+import okhttp3.RequestBody;
+
+import java.io.IOException;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Optional;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+
+/**
+ * Seeds entities into the broker through its batch endpoint(/v2/op/update). The entities are split into batches of the
+ * configured size, that are sent concurrently through the RequestExecutor with a bounded number of requests in flight.
+ */
+public class EntitySeeder {
+
+	private static final MediaType JSON = MediaType.get("application/json");
+	private static final byte[] BATCH_PREFIX = PayloadBuffer.encode("{\"actionType\":\"append\",\"entities\":[");
+	private static final byte[] BATCH_SUFFIX = PayloadBuffer.encode("]}");
+
+	private final OkHttpClient httpClient;
+	private final HttpUrl batchUpdateUrl;
+	private final String fiwareService;
+	private final String fiwareServicePath;
+	private final int batchSize;
+	private final int maxInFlight;
+
+	public EntitySeeder(OkHttpClient httpClient, String brokerUrl, String fiwareService, String fiwareServicePath,
+						int batchSize, int maxInFlight) {
+		if (batchSize < 1 || maxInFlight < 1) {
+			throw new IllegalArgumentException("Batch size and requests in flight need to be at least 1.");
+		}
+		this.httpClient = httpClient;
+		this.batchUpdateUrl = HttpUrl.get(brokerUrl).newBuilder()
+				.addPathSegment("v2")
+				.addPathSegment("op")
+				.addPathSegment("update")
+				.build();
+		this.fiwareService = fiwareService;
+		this.fiwareServicePath = fiwareServicePath;
+		this.batchSize = batchSize;
+		this.maxInFlight = maxInFlight;
+	}
+
+	/**
+	 * Upserts all given entities and waits for every batch to be answered.
+	 *
+	 * @param entities utf-8 encoded json-representations of the entities, in the order they should be sent
+	 * @return the result of the seeding
+	 */
+	public SeedingResult seed(List<byte[]> entities) throws InterruptedException {
+		int batchCount = (entities.size() + batchSize - 1) / batchSize;
+		List<Future<String>> batchResults = new ArrayList<>();
+
+		long start = System.nanoTime();
+		try (RequestExecutor.Scope scope = RequestExecutor.openScope(maxInFlight)) {
+			for (int from = 0; from < entities.size(); from += batchSize) {
+				List<byte[]> batch = entities.subList(from, Math.min(from + batchSize, entities.size()));
+				Request batchRequest = new Request.Builder()
+						.url(batchUpdateUrl)
+						.addHeader("Fiware-Service", fiwareService)
+						.addHeader("Fiware-ServicePath", fiwareServicePath)
+						.method("POST", RequestBody.create(getBatchBody(batch), JSON))
+						.build();
+				batchResults.add(scope.fork(batchUpdateUrl, () -> sendBatch(batchRequest)));
+			}
+			scope.join();
+		} catch (ExecutionException e) {
+			// failures are reported through the batch results
+		}
+		List<String> failures = new ArrayList<>();
+		for (Future<String> batchResult : batchResults) {
+			try {
+				Optional.ofNullable(batchResult.get()).ifPresent(failures::add);
+			} catch (ExecutionException e) {
+				failures.add(String.format("Batch failed: %s", e.getCause().getMessage()));
+			}
+		}
+		return new SeedingResult(entities.size(), batchCount, Duration.ofNanos(System.nanoTime() - start), List.copyOf(failures));
+	}
+
+	/**
+	 * @return null if successful, a description of the failure otherwise
+	 */
+	private String sendBatch(Request batchRequest) {
+		try {
+			int responseCode = HttpClients.executeForCode(httpClient, batchRequest);
+			return responseCode >= 200 && responseCode < 300 ? null : String.format("Batch was answered with %s.", responseCode);
+		} catch (IOException e) {
+			return String.format("Batch failed: %s", e.getMessage());
+		}
+	}
+
+	private static byte[] getBatchBody(List<byte[]> batch) {
+		int size = BATCH_PREFIX.length + BATCH_SUFFIX.length + batch.size();
+		for (byte[] entity : batch) {
+			size += entity.length;
+		}
+		PayloadBuffer body = new PayloadBuffer(size);
+		body.writeRaw(BATCH_PREFIX);
+		for (int i = 0; i < batch.size(); i++) {
+			if (i > 0) {
+				body.writeByte(',');
+			}
+			body.writeRaw(batch.get(i));
+		}
+		body.writeRaw(BATCH_SUFFIX);
+		return body.toByteArray();
+	}
+
+	/**
+	 * Outcome of a seeding run.
+	 */
+	public static class SeedingResult {
+
+		private final int entityCount;
+		private final int batchCount;
+		private final Duration duration;
+		private final List<String> failures;
+
+		public SeedingResult(int entityCount, int batchCount, Duration duration, List<String> failures) {
+			this.entityCount = entityCount;
+			this.batchCount = batchCount;
+			this.duration = duration;
+			this.failures = failures;
+		}
+
+		public int getEntityCount() {
+			return entityCount;
+		}
+
+		public int getBatchCount() {
+			return batchCount;
+		}
+
+		public Duration getDuration() {
+			return duration;
+		}
+
+		public List<String> getFailures() {
+			return failures;
+		}
+
+		public double getEntitiesPerSecond() {
+			return entityCount / Math.max(duration.toNanos() / 1_000_000_000d, 1e-9);
+		}
+
+		@Override
+		public String toString() {
+			return String.format("Seeded %s entities in %s batches within %s ms (%.1f entities/s).",
+					entityCount, batchCount, duration.toMillis(), getEntitiesPerSecond());
+		}
+	}
+}
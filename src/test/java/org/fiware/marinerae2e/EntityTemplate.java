@@ -0,0 +1,102 @@
+package org.fiware.marinerae2e;
+
+import java.util.List;
+
+/**
+ * Precompiled json template of an NGSIv2 entity with numeric attributes, each carrying a TimeInstant metadata. All
+ * constant parts are encoded once on compilation, rendering only writes the id, the values and the time into a
+ * reusable buffer.
+ */
+public class EntityTemplate {
+
+	// every thread renders into its own buffer
+	private static final ThreadLocal<PayloadBuffer> BUFFERS = ThreadLocal.withInitial(PayloadBuffer::new);
+
+	private final int attributeCount;
+	// {"type":"<type>","id":"
+	private final byte[] header;
+	// "
+	private final byte[] idSuffix;
+	// ,"<name>":{"type":"Number","value":
+	private final byte[][] attributePrefixes;
+	// ,"metadata":{"TimeInstant":{"type":"DateTime","value":"
+	private final byte[] metadataPrefix;
+	// "}}}
+	private final byte[] attributeSuffix;
+
+	private EntityTemplate(String entityType, List<String> attributeNames) {
+		this.attributeCount = attributeNames.size();
+		this.header = PayloadBuffer.encode("{\"type\":\"", entityType, "\",\"id\":\"");
+		this.idSuffix = PayloadBuffer.encode("\"");
+		this.attributePrefixes = new byte[attributeCount][];
+		for (int i = 0; i < attributeCount; i++) {
+			attributePrefixes[i] = PayloadBuffer.encode(",\"", attributeNames.get(i), "\":{\"type\":\"Number\",\"value\":");
+		}
+		this.metadataPrefix = PayloadBuffer.encode(",\"metadata\":{\"TimeInstant\":{\"type\":\"DateTime\",\"value\":\"");
+		this.attributeSuffix = PayloadBuffer.encode("\"}}}");
+	}
+
+	/**
+	 * Compile the template for entities of the given type, carrying the given numeric attributes.
+	 */
+	public static EntityTemplate compile(String entityType, List<String> attributeNames) {
+		return new EntityTemplate(entityType, List.copyOf(attributeNames));
+	}
+
+	public static EntityTemplate compile(String entityType, String... attributeNames) {
+		return compile(entityType, List.of(attributeNames));
+	}
+
+	public int getAttributeCount() {
+		return attributeCount;
+	}
+
+	/**
+	 * Render the entity into the buffer, after its current content.
+	 *
+	 * @param buffer      buffer to write to
+	 * @param id          id of the entity
+	 * @param timeInstant value of the TimeInstant metadata, the same for all attributes
+	 * @param values      values of the attributes, in the order they were compiled with
+	 */
+	public void render(PayloadBuffer buffer, String id, String timeInstant, double... values) {
+		if (values.length != attributeCount) {
+			throw new IllegalArgumentException(String.format("The template expects %s values, but got %s.", attributeCount, values.length));
+		}
+		buffer.writeRaw(header);
+		buffer.writeEscaped(id);
+		buffer.writeRaw(idSuffix);
+		// the time is encoded once and copied for all further attributes
+		int timeStart = -1;
+		int timeEnd = -1;
+		for (int i = 0; i < attributeCount; i++) {
+			buffer.writeRaw(attributePrefixes[i]);
+			buffer.writeNumber(values[i]);
+			buffer.writeRaw(metadataPrefix);
+			if (timeStart < 0) {
+				timeStart = buffer.size();
+				buffer.writeEscaped(timeInstant);
+				timeEnd = buffer.size();
+			} else {
+				buffer.copyWithin(timeStart, timeEnd);
+			}
+			buffer.writeRaw(attributeSuffix);
+		}
+		buffer.writeByte('}');
+	}
+
+	/**
+	 * Render the entity into a new array, to be handed over to asynchronous requests.
+	 */
+	public byte[] toBytes(String id, String timeInstant, double... values) {
+		PayloadBuffer buffer = BUFFERS.get().reset();
+		render(buffer, id, timeInstant, values);
+		return buffer.toByteArray();
+	}
+
+	public String toString(String id, String timeInstant, double... values) {
+		PayloadBuffer buffer = BUFFERS.get().reset();
+		render(buffer, id, timeInstant, values);
+		return buffer.toString();
+	}
+}
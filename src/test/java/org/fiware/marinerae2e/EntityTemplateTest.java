@@ -0,0 +1,225 @@
+package org.fiware.marinerae2e;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.params.ParameterizedTest;
+import org.junit.jupiter.params.provider.ValueSource;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Compares the entities rendered by the EntityTemplate with the ones of the String.format builder it replaced.
+ */
+public class EntityTemplateTest {
+
+	private static final ObjectMapper OBJECT_MAPPER = new ObjectMapper();
+	private static final EntityTemplate TEMPLATE = EntityTemplate.compile("AirQualityObserved", "temperature", "humidity", "co", "no2");
+	private static final String TIME_INSTANT = "2022-05-17T10:15:30+0200";
+
+	@ParameterizedTest
+	@ValueSource(doubles = {0, 1, 17.341234, 0.5, 0.000001, 123456.789, 999999999999.5})
+	public void renderPositiveValues(double value) throws IOException {
+		assertMatchesBuilder("test-air-quality", value, value / 2, value + 1, value * 3);
+	}
+
+	@ParameterizedTest
+	@ValueSource(doubles = {-1, -0.52, -17.341234, -0.000001, -123456.789, -999999999999.5})
+	public void renderNegativeValues(double value) throws IOException {
+		assertMatchesBuilder("test-air-quality", value, -value, value, 0);
+	}
+
+	@ParameterizedTest
+	@ValueSource(doubles = {1e12, -1e12, 1.5e12, 3.25e15, -7.1e18, 9.999e20, Double.MAX_VALUE})
+	public void renderLargeValues(double value) throws IOException {
+		assertMatchesBuilder("test-air-quality", value, value, 1, value);
+	}
+
+	@Test
+	public void renderRandomValues() throws IOException {
+		Random random = new Random(42);
+		for (int i = 0; i < 1000; i++) {
+			assertMatchesBuilder(String.format("sensor-%s", i), random.nextDouble() * 20, random.nextDouble() * 20,
+					random.nextDouble() - 0.5, random.nextGaussian() * 1e9);
+		}
+	}
+
+	@Test
+	public void roundToSixFractionalDigits() {
+		JsonNode entity = render("id", 0.1234567, 0.0000004, -0.0000004, 2.9999999);
+		assertEquals("0.123457", entity.path("temperature").path("value").asText());
+		assertEquals("0.0", entity.path("humidity").path("value").asText());
+		assertEquals("0.0", entity.path("co").path("value").asText());
+		assertEquals("3.0", entity.path("no2").path("value").asText());
+	}
+
+	@Test
+	public void renderNegativeZero() {
+		assertEquals("0.0", render("id", -0.0, 0, 0, 0).path("temperature").path("value").asText());
+	}
+
+	@Test
+	public void rejectInvalidNumbers() {
+		assertThrows(IllegalArgumentException.class, () -> TEMPLATE.toBytes("id", TIME_INSTANT, Double.NaN, 0, 0, 0));
+		assertThrows(IllegalArgumentException.class, () -> TEMPLATE.toBytes("id", TIME_INSTANT, 0, Double.POSITIVE_INFINITY, 0, 0));
+		assertThrows(IllegalArgumentException.class, () -> TEMPLATE.toBytes("id", TIME_INSTANT, 0, 0, 0));
+	}
+
+	@Test
+	public void renderNonBmpIds() throws IOException {
+		// surrogate pairs have to end up as a single 4 byte utf-8 sequence
+		assertMatchesBuilder("sensor-\uD83C\uDF21\uFE0F", 1, 2, 3, 4);
+		assertMatchesBuilder("\uD834\uDD1E-\u00e4\u20ac-\uD83D\uDE00", -1, 2, -3, 4);
+		assertEquals("\uD83D\uDE00", render("\uD83D\uDE00", 0, 0, 0, 0).path("id").asText());
+	}
+
+	@Test
+	public void escapeControlCharacters() throws IOException {
+		// the builder did not escape at all, its output would not even be json
+		StringBuilder id = new StringBuilder("sensor");
+		for (char c = 0; c < 0x20; c++) {
+			id.append(c);
+		}
+		id.append("\"quoted\"\\back/slash\u007f\u2028");
+		JsonNode expected = OBJECT_MAPPER.readTree(getTestEntity("placeholder", 1, 2, 3, 4, TIME_INSTANT));
+		((ObjectNode) expected).put("id", id.toString());
+		assertJsonEquals(expected, render(id.toString(), 1, 2, 3, 4));
+	}
+
+	@Test
+	public void escapeTimeInstant() {
+		String timeInstant = "2022-05-17T10:15:30\"\n\\";
+		JsonNode entity = parse(TEMPLATE.toBytes("id", timeInstant, 1, 2, 3, 4));
+		for (String attribute : List.of("temperature", "humidity", "co", "no2")) {
+			assertEquals(timeInstant, entity.path(attribute).path("metadata").path("TimeInstant").path("value").asText());
+		}
+	}
+
+	@Test
+	public void renderAfterBufferContent() throws IOException {
+		// batches are rendered entity after entity into the same buffer
+		PayloadBuffer buffer = new PayloadBuffer(8);
+		buffer.writeByte('[');
+		List<String> expected = new ArrayList<>();
+		for (int i = 0; i < 10; i++) {
+			if (i > 0) {
+				buffer.writeByte(',');
+			}
+			String timeInstant = String.format("2022-05-17T10:%02d:00+0200", i);
+			TEMPLATE.render(buffer, String.format("sensor-%s", i), timeInstant, i, -i, i * 1e11, 0.25);
+			expected.add(getTestEntity(String.format("sensor-%s", i), i, -i, i * 1e11, 0.25, timeInstant));
+		}
+		buffer.writeByte(']');
+		assertJsonEquals(OBJECT_MAPPER.readTree("[" + String.join(",", expected) + "]"), OBJECT_MAPPER.readTree(buffer.toByteArray()));
+	}
+
+	@Test
+	public void renderBytesAndStringAlike() {
+		String id = "sensor-\uD83C\uDF21-\u0007";
+		assertArrayEquals(TEMPLATE.toString(id, TIME_INSTANT, 1, -2, 3e12, 4).getBytes(StandardCharsets.UTF_8),
+				TEMPLATE.toBytes(id, TIME_INSTANT, 1, -2, 3e12, 4));
+	}
+
+	private static void assertMatchesBuilder(String id, double temperature, double humidity, double co, double no2) throws IOException {
+		JsonNode expected = OBJECT_MAPPER.readTree(getTestEntity(id, temperature, humidity, co, no2, TIME_INSTANT));
+		assertJsonEquals(expected, render(id, temperature, humidity, co, no2));
+	}
+
+	private static JsonNode render(String id, double temperature, double humidity, double co, double no2) {
+		return parse(TEMPLATE.toBytes(id, TIME_INSTANT, temperature, humidity, co, no2));
+	}
+
+	private static JsonNode parse(byte[] entity) {
+		try {
+			return OBJECT_MAPPER.readTree(entity);
+		} catch (IOException e) {
+			throw new AssertionError("Rendered entity is not valid json.", e);
+		}
+	}
+
+	/**
+	 * Compares the json trees, numbers only up to the 6 fractional digits the template renders.
+	 */
+	private static void assertJsonEquals(JsonNode expected, JsonNode actual) {
+		assertEquals(expected.getNodeType(), actual.getNodeType(), String.format("Expected %s, but was %s.", expected, actual));
+		if (expected.isNumber()) {
+			// half of the last rendered digit, plus the precision of the double itself
+			double tolerance = 5e-7 + Math.abs(expected.asDouble()) * 1e-15;
+			assertEquals(expected.asDouble(), actual.asDouble(), tolerance, String.format("Expected %s, but was %s.", expected, actual));
+		} else if (expected.isObject()) {
+			assertEquals(expected.size(), actual.size(), String.format("Expected %s, but was %s.", expected, actual));
+			Iterator<String> fieldNames = expected.fieldNames();
+			while (fieldNames.hasNext()) {
+				String fieldName = fieldNames.next();
+				assertTrue(actual.has(fieldName), String.format("Missing %s in %s.", fieldName, actual));
+				assertJsonEquals(expected.get(fieldName), actual.get(fieldName));
+			}
+		} else if (expected.isArray()) {
+			assertEquals(expected.size(), actual.size(), String.format("Expected %s, but was %s.", expected, actual));
+			for (int i = 0; i < expected.size(); i++) {
+				assertJsonEquals(expected.get(i), actual.get(i));
+			}
+		} else {
+			assertEquals(expected, actual);
+		}
+	}
+
+	// the builder the template replaced, kept as reference
+	private static String getTestEntity(String id, double temperature, double humidity, double co, double no2, String timeInstant) {
+		return String.format("{\n" +
+				"  \"type\": \"AirQualityObserved\",\n" +
+				"  \"id\": \"%s\",\n" +
+				"  \"temperature\": {\n" +
+				"  	 \"type\": \"Number\", " +
+				"    \"value\": %s,\n" +
+				"    \"metadata\": {" +
+				"		\"TimeInstant\": {" +
+				" 			\"type\":\"DateTime\", " +
+				" 			\"value\":\"%s\" " +
+				" 		}\n" +
+				"	 }\n" +
+				"  },\n" +
+				"  \"humidity\": {\n" +
+				"  	 \"type\": \"Number\", " +
+				"    \"value\": %s,\n" +
+				"    \"metadata\": {" +
+				"		\"TimeInstant\": {" +
+				" 			\"type\":\"DateTime\", " +
+				" 			\"value\":\"%s\" " +
+				" 		}\n" +
+				"	 }\n" +
+				"  },\n" +
+				"  \"co\": {\n" +
+				"  	 \"type\": \"Number\", " +
+				"    \"value\": %s,\n" +
+				"    \"metadata\": {" +
+				"		\"TimeInstant\": {" +
+				" 			\"type\":\"DateTime\", " +
+				" 			\"value\":\"%s\" " +
+				" 		}\n" +
+				"	 }\n" +
+				"  },\n" +
+				"  \"no2\": {\n" +
+				"  	 \"type\": \"Number\", " +
+				"    \"value\": %s,\n" +
+				"    \"metadata\": {" +
+				"		\"TimeInstant\": {" +
+				" 			\"type\":\"DateTime\", " +
+				" 			\"value\":\"%s\" " +
+				" 		}\n" +
+				"	 }\n" +
+				"  }\n" +
+				"}", id, temperature, timeInstant, humidity, timeInstant, co, timeInstant, no2, timeInstant);
+	}
+}
@@ -0,0 +1,242 @@
+package org.fiware.marinerae2e;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.node.ArrayNode;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+import okhttp3.Credentials;
+import okhttp3.HttpUrl;
+import okhttp3.MediaType;
+import okhttp3.OkHttpClient;
+import okhttp3.Request;
+import okhttp3.RequestBody;
+
+import java.io.IOException;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Verifies the data of a dashboard through the grafana http-api instead of the rendered page. The dashboard json is
+ * resolved once, the queries of its panels are executed via /api/ds/query and the returned data frames are inspected.
+ */
+public class GrafanaApiVerifier {
+
+	private static final ObjectMapper OBJECT_MAPPER = new ObjectMapper();
+	private static final MediaType JSON = MediaType.get("application/json");
+	private static final int MAX_DATA_POINTS = 1000;
+	private static final long MIN_INTERVAL_MS = 60000;
+
+	private final OkHttpClient grafanaClient;
+	private final HttpUrl grafanaUrl;
+	private final String credentials;
+	// dashboards are resolved only once per verifier
+	private final Map<String, JsonNode> dashboards = new ConcurrentHashMap<>();
+
+	public GrafanaApiVerifier(OkHttpClient grafanaClient, String grafanaUrl, String username, String password) {
+		this.grafanaClient = grafanaClient;
+		this.grafanaUrl = HttpUrl.get(grafanaUrl);
+		this.credentials = Credentials.basic(username, password);
+	}
+
+	/**
+	 * Executes the queries of the panel at the given position and counts the cells of the returned frames that contain
+	 * the value.
+	 *
+	 * @param dashboardUid uid of the dashboard
+	 * @param position     position of the panel in the dashboard grid, starting with 1(top left)
+	 * @param value        the value to count
+	 * @return number of cells containing the value
+	 */
+	public long countPanelValue(String dashboardUid, int position, String value) throws IOException {
+		JsonNode dashboard = getDashboard(dashboardUid);
+		List<JsonNode> panels = getPanels(dashboard);
+		if (position < 1 || position > panels.size()) {
+			throw new IllegalArgumentException(String.format("The dashboard %s has no panel at position %s.", dashboardUid, position));
+		}
+		long count = 0;
+		for (JsonNode frame : queryPanel(panels.get(position - 1), dashboard.path("time").path("from").asText("now-2d"),
+				dashboard.path("time").path("to").asText("now"), MIN_INTERVAL_MS)) {
+			for (JsonNode column : frame.path("data").path("values")) {
+				for (JsonNode cell : column) {
+					if (value.equals(cell.asText())) {
+						count++;
+					}
+				}
+			}
+		}
+		return count;
+	}
+
+	/**
+	 * Executes the queries of every panel of the dashboard within the given time range and measures their duration.
+	 *
+	 * @param dashboardUid uid of the dashboard
+	 * @param from         start of the time range
+	 * @param to           end of the time range
+	 * @return the timings, in the order of the panels
+	 */
+	public List<PanelTiming> timePanels(String dashboardUid, Instant from, Instant to) throws IOException {
+		JsonNode dashboard = getDashboard(dashboardUid);
+		// as grafana does, the interval grows with the range to stay within the maximum number of data points
+		long intervalMs = Math.max(MIN_INTERVAL_MS, Duration.between(from, to).toMillis() / MAX_DATA_POINTS);
+		List<PanelTiming> timings = new ArrayList<>();
+		for (JsonNode panel : getPanels(dashboard)) {
+			if (!panel.path("targets").elements().hasNext()) {
+				continue;
+			}
+			long start = System.nanoTime();
+			List<JsonNode> frames = queryPanel(panel, String.valueOf(from.toEpochMilli()),
+					String.valueOf(to.toEpochMilli()), intervalMs);
+			Duration duration = Duration.ofNanos(System.nanoTime() - start);
+			long rows = 0;
+			for (JsonNode frame : frames) {
+				rows += frame.path("data").path("values").path(0).size();
+			}
+			timings.add(new PanelTiming(panel.path("title").asText(), duration, rows));
+		}
+		return timings;
+	}
+
+	/**
+	 * Titles of all panels of the dashboard, by panel id.
+	 */
+	public Map<String, String> getPanelTitles(String dashboardUid) throws IOException {
+		Map<String, String> panelTitles = new LinkedHashMap<>();
+		getPanels(getDashboard(dashboardUid)).forEach(panel -> panelTitles.put(panel.path("id").asText(), panel.path("title").asText()));
+		return panelTitles;
+	}
+
+	private JsonNode getDashboard(String dashboardUid) throws IOException {
+		JsonNode dashboard = dashboards.get(dashboardUid);
+		if (dashboard == null) {
+			dashboard = get(grafanaUrl.newBuilder()
+					.addPathSegment("api")
+					.addPathSegment("dashboards")
+					.addPathSegment("uid")
+					.addPathSegment(dashboardUid)
+					.build()).path("dashboard");
+			dashboards.put(dashboardUid, dashboard);
+		}
+		return dashboard;
+	}
+
+	/**
+	 * All panels of the dashboard, including those inside of collapsed rows, ordered by their grid position.
+	 */
+	private static List<JsonNode> getPanels(JsonNode dashboard) {
+		List<JsonNode> panels = new ArrayList<>();
+		for (JsonNode panel : dashboard.path("panels")) {
+			if ("row".equals(panel.path("type").asText())) {
+				panel.path("panels").forEach(panels::add);
+			} else {
+				panels.add(panel);
+			}
+		}
+		panels.sort(Comparator.<JsonNode>comparingInt(p -> p.path("gridPos").path("y").asInt())
+				.thenComparingInt(p -> p.path("gridPos").path("x").asInt()));
+		return panels;
+	}
+
+	/**
+	 * Runs all queries of the panel within the given time range.
+	 *
+	 * @return the data frames returned for all queries
+	 */
+	private List<JsonNode> queryPanel(JsonNode panel, String from, String to, long intervalMs) throws IOException {
+		ObjectNode queryRequest = OBJECT_MAPPER.createObjectNode();
+		queryRequest.put("from", from);
+		queryRequest.put("to", to);
+		ArrayNode queries = queryRequest.putArray("queries");
+		for (JsonNode target : panel.path("targets")) {
+			ObjectNode query = target.deepCopy();
+			JsonNode datasource = target.hasNonNull("datasource") ? target.get("datasource") : panel.path("datasource");
+			query.set("datasource", resolveDatasource(datasource));
+			query.put("maxDataPoints", MAX_DATA_POINTS);
+			query.put("intervalMs", intervalMs);
+			queries.add(query);
+		}
+		Request request = new Request.Builder()
+				.url(grafanaUrl.newBuilder().addPathSegment("api").addPathSegment("ds").addPathSegment("query").build())
+				.addHeader("Authorization", credentials)
+				.method("POST", RequestBody.create(OBJECT_MAPPER.writeValueAsBytes(queryRequest), JSON))
+				.build();
+		JsonNode response = execute(request);
+		List<JsonNode> frames = new ArrayList<>();
+		response.path("results").forEach(result -> result.path("frames").forEach(frames::add));
+		return frames;
+	}
+
+	/**
+	 * Older dashboards reference their datasource by name, the query api requires its uid.
+	 */
+	private JsonNode resolveDatasource(JsonNode datasource) throws IOException {
+		if (!datasource.isTextual()) {
+			return datasource;
+		}
+		JsonNode datasourceDefinition = get(grafanaUrl.newBuilder()
+				.addPathSegment("api")
+				.addPathSegment("datasources")
+				.addPathSegment("name")
+				.addPathSegment(datasource.asText())
+				.build());
+		ObjectNode datasourceReference = OBJECT_MAPPER.createObjectNode();
+		datasourceReference.put("uid", datasourceDefinition.path("uid").asText());
+		datasourceReference.put("type", datasourceDefinition.path("type").asText());
+		return datasourceReference;
+	}
+
+	private JsonNode get(HttpUrl url) throws IOException {
+		return execute(new Request.Builder()
+				.url(url)
+				.addHeader("Authorization", credentials)
+				.build());
+	}
+
+	private JsonNode execute(Request request) throws IOException {
+		return HttpClients.execute(grafanaClient, request, response -> {
+			if (!response.isSuccessful()) {
+				throw new IOException(String.format("Grafana answered %s with %s.", request.url(), response.code()));
+			}
+			return OBJECT_MAPPER.readTree(response.body().byteStream());
+		});
+	}
+
+	/**
+	 * Duration of the queries of a single panel and the number of rows they returned.
+	 */
+	public static class PanelTiming {
+
+		private final String title;
+		private final Duration duration;
+		private final long rows;
+
+		public PanelTiming(String title, Duration duration, long rows) {
+			this.title = title;
+			this.duration = duration;
+			this.rows = rows;
+		}
+
+		public String getTitle() {
+			return title;
+		}
+
+		public Duration getDuration() {
+			return duration;
+		}
+
+		public long getRows() {
+			return rows;
+		}
+
+		@Override
+		public String toString() {
+			return String.format("%s: %s rows in %s ms", title, rows, duration.toMillis());
+		}
+	}
+}
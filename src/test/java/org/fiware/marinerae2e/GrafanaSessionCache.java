@@ -0,0 +1,72 @@
+package org.fiware.marinerae2e;
+
+import org.openqa.selenium.Cookie;
+import org.openqa.selenium.WebDriver;
+
+import java.time.Duration;
+import java.time.Instant;
+import java.util.Date;
+import java.util.Optional;
+import java.util.Set;
+import java.util.stream.Collectors;
+
+/**
+ * Suite-wide cache of the grafana login session. Once the login through the UI succeeded, its session cookies are
+ * injected into new browser sessions, so that later scenarios start authenticated. The cached session expires after
+ * GRAFANA_SESSION_TTL or with the expiry of its cookie, whatever comes first.
+ */
+public final class GrafanaSessionCache {
+
+	private static final String SESSION_COOKIE = "grafana_session";
+	private static final Duration SESSION_TTL = Optional.ofNullable(System.getenv("GRAFANA_SESSION_TTL")).map(Duration::parse).orElse(Duration.ofMinutes(5));
+
+	private static Set<Cookie> sessionCookies = Set.of();
+	private static Instant expiry = Instant.EPOCH;
+
+	private GrafanaSessionCache() {
+		// prevent instantiation
+	}
+
+	/**
+	 * Store the session of the given browser, if it is logged in.
+	 */
+	public static synchronized void store(WebDriver webDriver) {
+		Set<Cookie> cookies = webDriver.manage().getCookies();
+		Optional<Cookie> optionalSessionCookie = cookies.stream().filter(c -> SESSION_COOKIE.equals(c.getName())).findAny();
+		if (optionalSessionCookie.isEmpty()) {
+			return;
+		}
+		Instant ttlExpiry = Instant.now().plus(SESSION_TTL);
+		expiry = Optional.ofNullable(optionalSessionCookie.get().getExpiry())
+				.map(Date::toInstant)
+				.filter(cookieExpiry -> cookieExpiry.isBefore(ttlExpiry))
+				.orElse(ttlExpiry);
+		// only the grafana cookies are relevant for the session
+		sessionCookies = cookies.stream()
+				.filter(c -> c.getName().startsWith("grafana_"))
+				.collect(Collectors.toUnmodifiableSet());
+	}
+
+	/**
+	 * Inject the cached session into the given browser. The browser needs to be on a grafana page already, since
+	 * cookies can only be set for the current domain.
+	 *
+	 * @return true if a valid session was injected
+	 */
+	public static synchronized boolean restore(WebDriver webDriver) {
+		if (sessionCookies.isEmpty() || !Instant.now().isBefore(expiry)) {
+			invalidate();
+			return false;
+		}
+		sessionCookies.forEach(webDriver.manage()::addCookie);
+		return true;
+	}
+
+	/**
+	 * Drop the cached session, e.g. because grafana did not accept it.
+	 */
+	public static synchronized void invalidate() {
+		sessionCookies = Set.of();
+		expiry = Instant.EPOCH;
+	}
+}
@@ -0,0 +1,261 @@
+package org.fiware.marinerae2e;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+import okhttp3.HttpUrl;
+import okhttp3.MediaType;
+import okhttp3.OkHttpClient;
+import okhttp3.Request;
+import okhttp3.RequestBody;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.time.Duration;
+import java.time.Instant;
+import java.time.format.DateTimeFormatter;
+import java.util.ArrayList;
+import java.util.Base64;
+import java.util.BitSet;
+import java.util.List;
+import java.util.Optional;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+
+/**
+ * Writes a large history of samples directly into QuantumLeap, through its notification endpoint(/v2/notify). The broker
+ * only keeps the latest state of an entity, thus a backfill through it would need one notification per sample.
+ * Samples are split into chunks(one entity, consecutive points in time), every chunk is sent as a single notification.
+ * Chunks are rendered lazily and sent concurrently through the RequestExecutor. Completed chunks are recorded in a
+ * checkpoint file, an interrupted backfill with the same parameters continues where it stopped.
+ */
+public class HistoryBackfill {
+
+	private static final MediaType JSON = MediaType.get("application/json");
+	private static final ObjectMapper OBJECT_MAPPER = new ObjectMapper();
+	private static final byte[] NOTIFICATION_PREFIX = PayloadBuffer.encode("{\"subscriptionId\":\"e2e-backfill\",\"data\":[");
+	private static final byte[] NOTIFICATION_SUFFIX = PayloadBuffer.encode("]}");
+	// the checkpoint is written after this number of completed chunks
+	private static final int CHECKPOINT_INTERVAL = 20;
+	private static final int RETRIES = 3;
+	private static final Duration INITIAL_RETRY_DELAY = Duration.ofMillis(200);
+
+	private final OkHttpClient quantumLeapClient;
+	private final HttpUrl notifyUrl;
+	private final String fiwareService;
+	private final String fiwareServicePath;
+	private final EntityTemplate entityTemplate;
+	private final File checkpointFile;
+
+	// guarded by the instance, updated by the sending threads
+	private BitSet completedChunks;
+	private int completedSinceCheckpoint;
+	private long sentPoints;
+
+	public HistoryBackfill(OkHttpClient quantumLeapClient, String quantumLeapUrl, String fiwareService, String fiwareServicePath,
+						   EntityTemplate entityTemplate, File checkpointFile) {
+		this.quantumLeapClient = quantumLeapClient;
+		this.notifyUrl = HttpUrl.get(quantumLeapUrl).newBuilder()
+				.addPathSegment("v2")
+				.addPathSegment("notify")
+				.build();
+		this.fiwareService = fiwareService;
+		this.fiwareServicePath = fiwareServicePath;
+		this.entityTemplate = entityTemplate;
+		this.checkpointFile = checkpointFile;
+	}
+
+	/**
+	 * Backfills all entities with one sample per step in [from, to).
+	 *
+	 * @param entityIds   entities to create the history for
+	 * @param from        time of the first sample
+	 * @param to          end of the history, exclusive
+	 * @param step        time between two samples of an entity
+	 * @param chunkSize   samples per notification
+	 * @param maxInFlight maximum number of notifications sent at the same time
+	 * @return the result of the backfill
+	 */
+	public BackfillResult run(List<String> entityIds, Instant from, Instant to, Duration step, int chunkSize, int maxInFlight)
+			throws InterruptedException, IOException {
+		if (entityIds.isEmpty() || chunkSize < 1 || maxInFlight < 1 || step.isZero() || step.isNegative() || !to.isAfter(from)) {
+			throw new IllegalArgumentException("Entities, chunk size, requests in flight, step and the time range need to be positive.");
+		}
+		long pointsPerEntity = (Duration.between(from, to).toNanos() + step.toNanos() - 1) / step.toNanos();
+		int chunksPerEntity = (int) ((pointsPerEntity + chunkSize - 1) / chunkSize);
+		int chunkCount = chunksPerEntity * entityIds.size();
+		String fingerprint = String.format("%s|%s|%s|%s|%s|%s|%s", fiwareService, fiwareServicePath, entityIds, from, to, step, chunkSize);
+		completedChunks = readCheckpoint(fingerprint);
+		int resumedChunks = completedChunks.cardinality();
+		sentPoints = 0;
+
+		List<Future<String>> chunkResults = new ArrayList<>();
+		long start = System.nanoTime();
+		try (RequestExecutor.Scope scope = RequestExecutor.openScope(maxInFlight)) {
+			for (int chunk = completedChunks.nextClearBit(0); chunk < chunkCount; chunk = completedChunks.nextClearBit(chunk + 1)) {
+				String entityId = entityIds.get(chunk / chunksPerEntity);
+				long firstPoint = (long) (chunk % chunksPerEntity) * chunkSize;
+				long lastPoint = Math.min(firstPoint + chunkSize, pointsPerEntity);
+				int chunkNumber = chunk;
+				chunkResults.add(scope.fork(notifyUrl, () -> sendChunk(chunkNumber, entityId, from, step, firstPoint, lastPoint, fingerprint)));
+			}
+			scope.join();
+		} catch (ExecutionException e) {
+			// failures are collected from the chunk results
+		}
+		List<String> failures = new ArrayList<>();
+		for (Future<String> chunkResult : chunkResults) {
+			try {
+				Optional.ofNullable(chunkResult.get()).ifPresent(failures::add);
+			} catch (ExecutionException e) {
+				failures.add(e.getCause().getMessage());
+			}
+		}
+		synchronized (this) {
+			writeCheckpoint(fingerprint);
+			return new BackfillResult(pointsPerEntity * entityIds.size(), sentPoints, chunkCount, resumedChunks,
+					Duration.ofNanos(System.nanoTime() - start), List.copyOf(failures));
+		}
+	}
+
+	/**
+	 * Renders and sends the chunk, retries on connection problems and server errors.
+	 *
+	 * @return null if successful, a description of the failure otherwise
+	 */
+	private String sendChunk(int chunk, String entityId, Instant from, Duration step, long firstPoint, long lastPoint,
+							 String fingerprint) throws InterruptedException {
+		PayloadBuffer buffer = new PayloadBuffer((int) (lastPoint - firstPoint) * 512);
+		buffer.writeRaw(NOTIFICATION_PREFIX);
+		for (long point = firstPoint; point < lastPoint; point++) {
+			if (point > firstPoint) {
+				buffer.writeByte(',');
+			}
+			Instant timeInstant = from.plus(step.multipliedBy(point));
+			entityTemplate.render(buffer, entityId, DateTimeFormatter.ISO_INSTANT.format(timeInstant), getValues(timeInstant));
+		}
+		buffer.writeRaw(NOTIFICATION_SUFFIX);
+		Request notification = new Request.Builder()
+				.url(notifyUrl)
+				.addHeader("Fiware-Service", fiwareService)
+				.addHeader("Fiware-ServicePath", fiwareServicePath)
+				.method("POST", RequestBody.create(buffer.toByteArray(), JSON))
+				.build();
+
+		String failure = null;
+		Duration retryDelay = INITIAL_RETRY_DELAY;
+		for (int attempt = 0; attempt <= RETRIES; attempt++) {
+			if (attempt > 0) {
+				Thread.sleep(retryDelay.toMillis());
+				retryDelay = retryDelay.multipliedBy(2);
+			}
+			try {
+				int responseCode = HttpClients.executeForCode(quantumLeapClient, notification);
+				if (responseCode >= 200 && responseCode < 300) {
+					chunkCompleted(chunk, lastPoint - firstPoint, fingerprint);
+					return null;
+				}
+				failure = String.format("Chunk %s of %s was answered with %s.", chunk, entityId, responseCode);
+				if (responseCode < 500) {
+					// client errors will not change with a retry
+					return failure;
+				}
+			} catch (IOException e) {
+				failure = String.format("Chunk %s of %s failed: %s", chunk, entityId, e.getMessage());
+			}
+		}
+		return failure;
+	}
+
+	/**
+	 * A daily cycle with some noise, so that aggregations over the history return meaningful values.
+	 */
+	private double[] getValues(Instant timeInstant) {
+		double dayPhase = 2 * Math.PI * (timeInstant.getEpochSecond() % 86400) / 86400d;
+		double[] values = new double[entityTemplate.getAttributeCount()];
+		for (int i = 0; i < values.length; i++) {
+			values[i] = 10 + 5 * Math.sin(dayPhase + i) + Math.random();
+		}
+		return values;
+	}
+
+	private synchronized void chunkCompleted(int chunk, long points, String fingerprint) {
+		completedChunks.set(chunk);
+		sentPoints += points;
+		if (++completedSinceCheckpoint >= CHECKPOINT_INTERVAL) {
+			writeCheckpoint(fingerprint);
+		}
+	}
+
+	private BitSet readCheckpoint(String fingerprint) throws IOException {
+		if (!checkpointFile.exists()) {
+			return new BitSet();
+		}
+		JsonNode checkpoint = OBJECT_MAPPER.readTree(checkpointFile);
+		// a checkpoint of a backfill with other parameters does not apply
+		if (!fingerprint.equals(checkpoint.path("fingerprint").asText())) {
+			return new BitSet();
+		}
+		return BitSet.valueOf(Base64.getDecoder().decode(checkpoint.path("completedChunks").asText()));
+	}
+
+	/**
+	 * Writes the checkpoint to a temporary file first, to not leave a broken checkpoint if the run gets killed.
+	 */
+	private void writeCheckpoint(String fingerprint) {
+		completedSinceCheckpoint = 0;
+		ObjectNode checkpoint = OBJECT_MAPPER.createObjectNode();
+		checkpoint.put("fingerprint", fingerprint);
+		checkpoint.put("completedChunks", Base64.getEncoder().encodeToString(completedChunks.toByteArray()));
+		try {
+			Optional.ofNullable(checkpointFile.getAbsoluteFile().getParentFile()).ifPresent(File::mkdirs);
+			File temporaryFile = new File(checkpointFile.getPath() + ".tmp");
+			OBJECT_MAPPER.writeValue(temporaryFile, checkpoint);
+			Files.move(temporaryFile.toPath(), checkpointFile.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+		} catch (IOException e) {
+			// the backfill continues, a later checkpoint might succeed
+		}
+	}
+
+	/**
+	 * Outcome of a backfill run.
+	 */
+	public static class BackfillResult {
+
+		private final long pointCount;
+		private final long sentPoints;
+		private final int chunkCount;
+		private final int resumedChunks;
+		private final Duration duration;
+		private final List<String> failures;
+
+		public BackfillResult(long pointCount, long sentPoints, int chunkCount, int resumedChunks, Duration duration, List<String> failures) {
+			this.pointCount = pointCount;
+			this.sentPoints = sentPoints;
+			this.chunkCount = chunkCount;
+			this.resumedChunks = resumedChunks;
+			this.duration = duration;
+			this.failures = failures;
+		}
+
+		public long getPointCount() {
+			return pointCount;
+		}
+
+		public List<String> getFailures() {
+			return failures;
+		}
+
+		public double getPointsPerSecond() {
+			return sentPoints / Math.max(duration.toNanos() / 1_000_000_000d, 1e-9);
+		}
+
+		@Override
+		public String toString() {
+			return String.format("Backfilled %s of %s points in %s chunks(%s resumed from the checkpoint) within %s ms (%.1f points/s), %s chunks failed.",
+					sentPoints, pointCount, chunkCount, resumedChunks, duration.toMillis(), getPointsPerSecond(), failures.size());
+		}
+	}
+}
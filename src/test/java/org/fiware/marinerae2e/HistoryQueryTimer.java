@@ -0,0 +1,212 @@
+package org.fiware.marinerae2e;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.node.ArrayNode;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+import okhttp3.HttpUrl;
+import okhttp3.OkHttpClient;
+import okhttp3.Request;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.time.Instant;
+import java.time.format.DateTimeFormatter;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+
+/**
+ * Times history queries over a backfilled entity, for growing time ranges and different aggregations, directly at
+ * QuantumLeap and through the panels of a grafana dashboard. Every query is repeated and reported together with the
+ * number of rows it returned, resulting in a latency-vs-data-size report.
+ */
+public class HistoryQueryTimer {
+
+	private static final ObjectMapper OBJECT_MAPPER = new ObjectMapper();
+	// aggregation that leaves the raw values untouched
+	public static final String NO_AGGREGATION = "none";
+
+	private final OkHttpClient quantumLeapClient;
+	private final String quantumLeapUrl;
+	private final String fiwareService;
+	private final String fiwareServicePath;
+	private final GrafanaApiVerifier grafanaApiVerifier;
+
+	private final List<QueryTiming> timings = new ArrayList<>();
+
+	public HistoryQueryTimer(OkHttpClient quantumLeapClient, String quantumLeapUrl, String fiwareService, String fiwareServicePath,
+							 GrafanaApiVerifier grafanaApiVerifier) {
+		this.quantumLeapClient = quantumLeapClient;
+		this.quantumLeapUrl = quantumLeapUrl;
+		this.fiwareService = fiwareService;
+		this.fiwareServicePath = fiwareServicePath;
+		this.grafanaApiVerifier = grafanaApiVerifier;
+	}
+
+	/**
+	 * Times the history query of the entity for every range and aggregation.
+	 *
+	 * @param entityId     entity to query
+	 * @param entityType   type of the entity
+	 * @param end          end of all ranges
+	 * @param ranges       ranges to query, ending at end
+	 * @param aggregations aggregations in the form method/period(e.g. avg/hour) or none
+	 * @param limit        maximum number of rows to request
+	 * @param repetitions  number of times every query is executed
+	 */
+	public void timeQuantumLeap(String entityId, String entityType, Instant end, List<Duration> ranges, List<String> aggregations,
+								int limit, int repetitions) throws IOException {
+		for (String aggregation : aggregations) {
+			for (Duration range : ranges) {
+				HttpUrl.Builder urlBuilder = HttpUrl.get(quantumLeapUrl).newBuilder()
+						.addPathSegment("v2")
+						.addPathSegment("entities")
+						.addPathSegment(entityId)
+						.addQueryParameter("type", entityType)
+						.addQueryParameter("fromDate", DateTimeFormatter.ISO_INSTANT.format(end.minus(range)))
+						.addQueryParameter("toDate", DateTimeFormatter.ISO_INSTANT.format(end))
+						.addQueryParameter("limit", String.valueOf(limit));
+				if (!NO_AGGREGATION.equals(aggregation)) {
+					String[] methodAndPeriod = aggregation.split("/");
+					urlBuilder.addQueryParameter("aggrMethod", methodAndPeriod[0]);
+					urlBuilder.addQueryParameter("aggrPeriod", methodAndPeriod[1]);
+				}
+				Request historyRequest = new Request.Builder()
+						.url(urlBuilder.build())
+						.addHeader("Fiware-Service", fiwareService)
+						.addHeader("Fiware-ServicePath", fiwareServicePath)
+						.build();
+				long[] durations = new long[repetitions];
+				long rows = 0;
+				for (int i = 0; i < repetitions; i++) {
+					long start = System.nanoTime();
+					rows = HttpClients.execute(quantumLeapClient, historyRequest, response -> {
+						if (response.code() == 404) {
+							return 0;
+						}
+						if (!response.isSuccessful()) {
+							throw new IOException(String.format("QuantumLeap answered %s with %s.", historyRequest.url(), response.code()));
+						}
+						return OBJECT_MAPPER.readTree(response.body().byteStream()).path("index").size();
+					});
+					durations[i] = System.nanoTime() - start;
+				}
+				timings.add(new QueryTiming("quantumleap", entityId, range, aggregation, rows, durations));
+			}
+		}
+	}
+
+	/**
+	 * Times the panels of the dashboard for every range.
+	 *
+	 * @param dashboardUid uid of the dashboard
+	 * @param end          end of all ranges
+	 * @param ranges       ranges to query, ending at end
+	 * @param repetitions  number of times every panel is queried
+	 */
+	public void timeGrafana(String dashboardUid, Instant end, List<Duration> ranges, int repetitions) throws IOException {
+		for (Duration range : ranges) {
+			// panel title -> durations of all repetitions
+			Map<String, long[]> panelDurations = new LinkedHashMap<>();
+			Map<String, Long> panelRows = new LinkedHashMap<>();
+			for (int i = 0; i < repetitions; i++) {
+				for (GrafanaApiVerifier.PanelTiming panelTiming : grafanaApiVerifier.timePanels(dashboardUid, end.minus(range), end)) {
+					panelDurations.computeIfAbsent(panelTiming.getTitle(), t -> new long[repetitions])[i] = panelTiming.getDuration().toNanos();
+					panelRows.put(panelTiming.getTitle(), panelTiming.getRows());
+				}
+			}
+			panelDurations.forEach((title, durations) ->
+					timings.add(new QueryTiming("grafana", title, range, NO_AGGREGATION, panelRows.get(title), durations)));
+		}
+	}
+
+	public List<QueryTiming> getTimings() {
+		return List.copyOf(timings);
+	}
+
+	/**
+	 * Writes the timings as json and, next to it, as csv.
+	 */
+	public void writeReport(File file) throws IOException {
+		Optional.ofNullable(file.getAbsoluteFile().getParentFile()).ifPresent(File::mkdirs);
+		ObjectNode report = OBJECT_MAPPER.createObjectNode();
+		ArrayNode queries = report.putArray("queries");
+		timings.forEach(timing -> queries.add(OBJECT_MAPPER.valueToTree(timing)));
+		OBJECT_MAPPER.writerWithDefaultPrettyPrinter().writeValue(file, report);
+
+		File csvFile = new File(file.getPath().replaceFirst("\\.json$", "") + ".csv");
+		try (PrintWriter writer = new PrintWriter(csvFile, StandardCharsets.UTF_8)) {
+			writer.println("source,query,range,aggregation,rows,p50Ms,maxMs");
+			for (QueryTiming timing : timings) {
+				writer.printf("%s,\"%s\",%s,%s,%s,%.3f,%.3f%n", timing.getSource(), timing.getQuery().replace("\"", "\"\""),
+						timing.getRange(), timing.getAggregation(), timing.getRows(), timing.getP50Ms(), timing.getMaxMs());
+			}
+		}
+	}
+
+	/**
+	 * Timing of a single query, over all its repetitions.
+	 */
+	public static class QueryTiming {
+
+		private final String source;
+		private final String query;
+		private final Duration range;
+		private final String aggregation;
+		private final long rows;
+		private final double p50Ms;
+		private final double maxMs;
+
+		public QueryTiming(String source, String query, Duration range, String aggregation, long rows, long[] durations) {
+			this.source = source;
+			this.query = query;
+			this.range = range;
+			this.aggregation = aggregation;
+			this.rows = rows;
+			long[] sortedDurations = durations.clone();
+			Arrays.sort(sortedDurations);
+			this.p50Ms = sortedDurations[(sortedDurations.length - 1) / 2] / 1_000_000d;
+			this.maxMs = sortedDurations[sortedDurations.length - 1] / 1_000_000d;
+		}
+
+		public String getSource() {
+			return source;
+		}
+
+		public String getQuery() {
+			return query;
+		}
+
+		public String getRange() {
+			return range.toString();
+		}
+
+		public String getAggregation() {
+			return aggregation;
+		}
+
+		public long getRows() {
+			return rows;
+		}
+
+		public double getP50Ms() {
+			return p50Ms;
+		}
+
+		public double getMaxMs() {
+			return maxMs;
+		}
+
+		@Override
+		public String toString() {
+			return String.format("%s %s over %s(%s): %s rows, p50/max: %.1f/%.1f ms", source, query, range, aggregation, rows,
+					p50Ms, maxMs);
+		}
+	}
+}
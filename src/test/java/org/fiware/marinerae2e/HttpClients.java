@@ -0,0 +1,129 @@
+package org.fiware.marinerae2e;
+
+import okhttp3.ConnectionPool;
+import okhttp3.Dispatcher;
+import okhttp3.OkHttpClient;
+import okhttp3.Protocol;
+import okhttp3.Request;
+import okhttp3.Response;
+
+import java.io.IOException;
+import java.time.Duration;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Suite-wide factory for the http-clients used by the steps. All clients share one connection pool and one
+ * dispatcher, they only differ in the timeouts configured for their endpoint.
+ */
+public final class HttpClients {
+
+	private static final ConnectionPool CONNECTION_POOL = new ConnectionPool(
+			getIntEnv("HTTP_MAX_IDLE_CONNECTIONS", 32),
+			getDurationEnv("HTTP_KEEP_ALIVE", Duration.ofMinutes(5)).toMillis(), TimeUnit.MILLISECONDS);
+	private static final Dispatcher DISPATCHER = new Dispatcher();
+
+	static {
+		DISPATCHER.setMaxRequests(getIntEnv("HTTP_MAX_REQUESTS", 64));
+		DISPATCHER.setMaxRequestsPerHost(getIntEnv("HTTP_MAX_REQUESTS_PER_HOST", 16));
+	}
+
+	private static final OkHttpClient BASE_CLIENT = new OkHttpClient.Builder()
+			.connectionPool(CONNECTION_POOL)
+			.dispatcher(DISPATCHER)
+			.connectTimeout(getDurationEnv("HTTP_CONNECT_TIMEOUT", Duration.ofSeconds(5)))
+			// timings of all calls end up in the performance report
+			.eventListenerFactory(HttpTimingListener.FACTORY)
+			.build();
+
+	private static final Map<Endpoint, OkHttpClient> CLIENTS = new ConcurrentHashMap<>();
+
+	private HttpClients() {
+		// prevent instantiation
+	}
+
+	/**
+	 * The endpoints contacted by the suite, each with its own configurable read timeout. Cleartext endpoints can opt in
+	 * to http/2 with prior knowledge(h2c), https endpoints negotiate http/2 via ALPN.
+	 */
+	public enum Endpoint {
+		BROKER("BROKER_TIMEOUT", Duration.ofSeconds(10), "BROKER_H2C_PRIOR_KNOWLEDGE"),
+		QUANTUM_LEAP("QUANTUM_LEAP_TIMEOUT", Duration.ofSeconds(10), "QUANTUM_LEAP_H2C_PRIOR_KNOWLEDGE"),
+		GRAFANA("GRAFANA_TIMEOUT", Duration.ofSeconds(30), null);
+
+		private final String timeoutEnv;
+		private final Duration defaultTimeout;
+		// null if the endpoint can not be configured for h2c
+		private final String h2cEnv;
+
+		Endpoint(String timeoutEnv, Duration defaultTimeout, String h2cEnv) {
+			this.timeoutEnv = timeoutEnv;
+			this.defaultTimeout = defaultTimeout;
+			this.h2cEnv = h2cEnv;
+		}
+	}
+
+	/**
+	 * Returns the client to be used for the given endpoint.
+	 */
+	public static OkHttpClient get(Endpoint endpoint) {
+		return CLIENTS.computeIfAbsent(endpoint, e -> {
+			Duration timeout = getDurationEnv(e.timeoutEnv, e.defaultTimeout);
+			OkHttpClient.Builder clientBuilder = BASE_CLIENT.newBuilder()
+					.readTimeout(timeout)
+					.writeTimeout(timeout);
+			if (e.h2cEnv != null && Boolean.parseBoolean(System.getenv(e.h2cEnv))) {
+				// prior knowledge fails against https and http/1.1-only targets, thus only on request
+				clientBuilder.protocols(List.of(Protocol.H2_PRIOR_KNOWLEDGE));
+			}
+			return clientBuilder.build();
+		});
+	}
+
+	/**
+	 * Executes the request and hands the response to the handler. The response is always closed afterwards, thus the
+	 * handler must not keep a reference to it.
+	 */
+	public static <T> T execute(OkHttpClient client, Request request, ResponseHandler<T> responseHandler) throws IOException {
+		try (Response response = client.newCall(request).execute()) {
+			return responseHandler.handle(response);
+		}
+	}
+
+	/**
+	 * Executes the request and returns the status code of the response.
+	 */
+	public static int executeForCode(OkHttpClient client, Request request) throws IOException {
+		return execute(client, request, Response::code);
+	}
+
+	/**
+	 * Current state of the shared connection pool and dispatcher.
+	 */
+	public static String getMetrics() {
+		int connections = CONNECTION_POOL.connectionCount();
+		int idleConnections = CONNECTION_POOL.idleConnectionCount();
+		return String.format("Http connections: %s (%s idle, %s active) - calls: %s running, %s queued.",
+				connections, idleConnections, connections - idleConnections,
+				DISPATCHER.runningCallsCount(), DISPATCHER.queuedCallsCount());
+	}
+
+	private static int getIntEnv(String name, int defaultValue) {
+		return Optional.ofNullable(System.getenv(name)).map(Integer::parseInt).orElse(defaultValue);
+	}
+
+	private static Duration getDurationEnv(String name, Duration defaultValue) {
+		return Optional.ofNullable(System.getenv(name)).map(Duration::parse).orElse(defaultValue);
+	}
+
+	/**
+	 * Extracts the result of a call from its response.
+	 */
+	@FunctionalInterface
+	public interface ResponseHandler<T> {
+		T handle(Response response) throws IOException;
+	}
+}
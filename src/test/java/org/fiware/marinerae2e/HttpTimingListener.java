@@ -0,0 +1,94 @@
+package org.fiware.marinerae2e;
+
+import okhttp3.Call;
+import okhttp3.EventListener;
+import okhttp3.Handshake;
+import okhttp3.Protocol;
+import org.fiware.marinerae2e.PerformanceReport.Category;
+
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.Proxy;
+import java.time.Duration;
+import java.util.List;
+
+/**
+ * Records the phases of every http call into the PerformanceReport: dns lookup, connect, tls handshake, time to first
+ * byte and the whole call. Phases are reported per target host. Connection phases only show up if a new connection
+ * had to be established.
+ */
+public class HttpTimingListener extends EventListener {
+
+	public static final Factory FACTORY = HttpTimingListener::new;
+
+	private final String host;
+	private long callStart;
+	private long dnsStart;
+	private long connectStart;
+	private long secureConnectStart;
+	private long requestStart;
+
+	private HttpTimingListener(Call call) {
+		this.host = call.request().url().host();
+	}
+
+	@Override
+	public void callStart(Call call) {
+		callStart = System.nanoTime();
+	}
+
+	@Override
+	public void dnsStart(Call call, String domainName) {
+		dnsStart = System.nanoTime();
+	}
+
+	@Override
+	public void dnsEnd(Call call, String domainName, List<InetAddress> inetAddressList) {
+		record("dns", dnsStart);
+	}
+
+	@Override
+	public void connectStart(Call call, InetSocketAddress inetSocketAddress, Proxy proxy) {
+		connectStart = System.nanoTime();
+	}
+
+	@Override
+	public void secureConnectStart(Call call) {
+		secureConnectStart = System.nanoTime();
+	}
+
+	@Override
+	public void secureConnectEnd(Call call, Handshake handshake) {
+		record("tls", secureConnectStart);
+	}
+
+	@Override
+	public void connectEnd(Call call, InetSocketAddress inetSocketAddress, Proxy proxy, Protocol protocol) {
+		record("connect", connectStart);
+	}
+
+	@Override
+	public void requestHeadersStart(Call call) {
+		requestStart = System.nanoTime();
+	}
+
+	@Override
+	public void responseHeadersStart(Call call) {
+		record("ttfb", requestStart);
+	}
+
+	@Override
+	public void callEnd(Call call) {
+		record("call", callStart);
+	}
+
+	@Override
+	public void callFailed(Call call, IOException ioe) {
+		record("failed call", callStart);
+	}
+
+	private void record(String phase, long start) {
+		PerformanceReport.record(Category.HTTP, String.format("%s %s", host, phase), Duration.ofNanos(System.nanoTime() - start));
+	}
+}
@@ -0,0 +1,198 @@
+package org.fiware.marinerae2e;
+
+import okhttp3.Call;
+import okhttp3.Callback;
+import okhttp3.HttpUrl;
+import okhttp3.MediaType;
+import okhttp3.OkHttpClient;
+import okhttp3.Request;
+import okhttp3.RequestBody;
+import okhttp3.Response;
+import org.HdrHistogram.ConcurrentHistogram;
+import org.HdrHistogram.Histogram;
+
+import java.io.IOException;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+import java.util.function.BiFunction;
+
+/**
+ * Generates open-loop load on the broker: N entities receive M samples each, sent at a target rate. Requests are issued
+ * at their scheduled time, independent of the completion of earlier ones. Latencies are measured from the scheduled
+ * send time, so that stalls of the broker are not hidden by the generator waiting for it(coordinated omission).
+ */
+public class LoadGenerator {
+
+	private static final MediaType JSON = MediaType.get("application/json");
+	// highest latency to be tracked, everything above is clamped
+	private static final long MAX_TRACKABLE_LATENCY_MICROS = TimeUnit.MINUTES.toMicros(10);
+
+	private final OkHttpClient httpClient;
+	private final HttpUrl upsertUrl;
+	private final String fiwareService;
+	private final String fiwareServicePath;
+	// creates the payload for the given entity id and sample time
+	private final BiFunction<String, Instant, byte[]> payloadFactory;
+
+	public LoadGenerator(OkHttpClient httpClient, String brokerUrl, String fiwareService, String fiwareServicePath,
+						 BiFunction<String, Instant, byte[]> payloadFactory) {
+		this.httpClient = httpClient;
+		this.upsertUrl = HttpUrl.get(brokerUrl).newBuilder()
+				.addPathSegment("v2")
+				.addPathSegment("entities")
+				.addEncodedQueryParameter("options", "upsert")
+				.build();
+		this.fiwareService = fiwareService;
+		this.fiwareServicePath = fiwareServicePath;
+		this.payloadFactory = payloadFactory;
+	}
+
+	/**
+	 * Runs the load and waits for all requests to be answered.
+	 *
+	 * @param entityIdPrefix prefix of the entities to be created, they will be suffixed with their number
+	 * @param entities       number of entities to send samples for
+	 * @param samples        number of samples per entity
+	 * @param targetRate     requests per second to reach after the ramp-up
+	 * @param rampUp         duration in which the rate is linearly increased up to the target rate
+	 * @return the result of the load run
+	 */
+	public LoadResult run(String entityIdPrefix, int entities, int samples, double targetRate, Duration rampUp) throws InterruptedException {
+		if (entities < 1 || samples < 1 || targetRate <= 0) {
+			throw new IllegalArgumentException("Entities, samples and the target rate need to be positive.");
+		}
+		int total = entities * samples;
+		Histogram latencies = new ConcurrentHistogram(MAX_TRACKABLE_LATENCY_MICROS, 3);
+		AtomicLong errors = new AtomicLong();
+		AtomicLong maxSendDelay = new AtomicLong();
+		CountDownLatch finished = new CountDownLatch(total);
+
+		long start = System.nanoTime();
+		Instant startInstant = Instant.now();
+		for (int request = 0; request < total; request++) {
+			long intendedStart = start + getScheduledOffset(request, targetRate, rampUp);
+			long waitTime = intendedStart - System.nanoTime();
+			if (waitTime > 0) {
+				LockSupport.parkNanos(waitTime);
+			} else {
+				maxSendDelay.accumulateAndGet(-waitTime, Math::max);
+			}
+
+			// round-robin over the entities, so that each of them receives its samples spread over the run
+			String entityId = String.format("%s-%s", entityIdPrefix, request % entities);
+			Instant sampleTime = startInstant.plusNanos(intendedStart - start);
+			Request upsertRequest = new Request.Builder()
+					.url(upsertUrl)
+					.addHeader("Fiware-Service", fiwareService)
+					.addHeader("Fiware-ServicePath", fiwareServicePath)
+					.method("POST", RequestBody.create(payloadFactory.apply(entityId, sampleTime), JSON))
+					.build();
+			httpClient.newCall(upsertRequest).enqueue(new Callback() {
+				@Override
+				public void onFailure(Call call, IOException e) {
+					errors.incrementAndGet();
+					record();
+				}
+
+				@Override
+				public void onResponse(Call call, Response response) {
+					try (response) {
+						if (!response.isSuccessful()) {
+							errors.incrementAndGet();
+						}
+					} finally {
+						record();
+					}
+				}
+
+				private void record() {
+					long latency = TimeUnit.NANOSECONDS.toMicros(System.nanoTime() - intendedStart);
+					latencies.recordValue(Math.min(latency, MAX_TRACKABLE_LATENCY_MICROS));
+					finished.countDown();
+				}
+			});
+		}
+		finished.await();
+		return new LoadResult(total, errors.get(), Duration.ofNanos(System.nanoTime() - start), Duration.ofNanos(maxSendDelay.get()), latencies);
+	}
+
+	/**
+	 * Offset of the given request from the start of the run. While ramping up, the rate grows linearly from 0 to the
+	 * target rate, therefore the number of requests sent until t is rate*t^2/(2*rampUp).
+	 */
+	static long getScheduledOffset(int request, double targetRate, Duration rampUp) {
+		double rampUpSeconds = rampUp.toNanos() / 1_000_000_000d;
+		double rampUpRequests = targetRate * rampUpSeconds / 2;
+		double offsetSeconds;
+		if (request < rampUpRequests) {
+			offsetSeconds = Math.sqrt(2 * request * rampUpSeconds / targetRate);
+		} else {
+			offsetSeconds = rampUpSeconds + (request - rampUpRequests) / targetRate;
+		}
+		return (long) (offsetSeconds * 1_000_000_000d);
+	}
+
+	/**
+	 * Outcome of a load run. Latencies are recorded in microseconds.
+	 */
+	public static class LoadResult {
+
+		private final int requestCount;
+		private final long errorCount;
+		private final Duration duration;
+		private final Duration maxSendDelay;
+		private final Histogram latencies;
+
+		public LoadResult(int requestCount, long errorCount, Duration duration, Duration maxSendDelay, Histogram latencies) {
+			this.requestCount = requestCount;
+			this.errorCount = errorCount;
+			this.duration = duration;
+			this.maxSendDelay = maxSendDelay;
+			this.latencies = latencies;
+		}
+
+		public int getRequestCount() {
+			return requestCount;
+		}
+
+		public long getErrorCount() {
+			return errorCount;
+		}
+
+		public Duration getDuration() {
+			return duration;
+		}
+
+		/**
+		 * How far the generator itself fell behind its schedule. A high value means the runner could not keep up with
+		 * the target rate.
+		 */
+		public Duration getMaxSendDelay() {
+			return maxSendDelay;
+		}
+
+		public Histogram getLatencies() {
+			return latencies;
+		}
+
+		public double getRequestsPerSecond() {
+			return requestCount / Math.max(duration.toNanos() / 1_000_000_000d, 1e-9);
+		}
+
+		@Override
+		public String toString() {
+			return String.format("Sent %s requests within %s ms (%.1f requests/s), %s errors, max send delay %s ms. " +
+							"Broker latency(ms): p50=%.1f p90=%.1f p99=%.1f p99.9=%.1f max=%.1f",
+					requestCount, duration.toMillis(), getRequestsPerSecond(), errorCount, maxSendDelay.toMillis(),
+					latencies.getValueAtPercentile(50) / 1000d,
+					latencies.getValueAtPercentile(90) / 1000d,
+					latencies.getValueAtPercentile(99) / 1000d,
+					latencies.getValueAtPercentile(99.9) / 1000d,
+					latencies.getMaxValue() / 1000d);
+		}
+	}
+}
@@ -0,0 +1,487 @@
+package org.fiware.marinerae2e;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.HdrHistogram.Histogram;
+
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.time.Instant;
+import java.time.OffsetDateTime;
+import java.time.format.DateTimeFormatter;
+import java.time.format.DateTimeParseException;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.Optional;
+import java.util.Set;
+
+/**
+ * Embedded receiver for broker notifications, to be registered as an additional subscription target. A single thread
+ * serves all connections through a selector and speaks just enough HTTP/1.1(keep-alive, Content-Length bodies) for
+ * the broker. Notifications are evaluated while they stream in: they are counted per entity, checked for
+ * duplicates and ordering(by their TimeInstant) and their lag(arrival - TimeInstant) is recorded.
+ */
+public class NotificationSink implements AutoCloseable {
+
+	private static final ObjectMapper OBJECT_MAPPER = new ObjectMapper();
+	private static final long MAX_TRACKABLE_LAG_MILLIS = Duration.ofHours(1).toMillis();
+	private static final int INITIAL_BUFFER_SIZE = 16 * 1024;
+	// notifications of the broker are far smaller, anything above is rejected instead of buffered
+	private static final int MAX_BODY_SIZE = 16 * 1024 * 1024;
+	private static final byte[] HEADER_END = "\r\n\r\n".getBytes(StandardCharsets.US_ASCII);
+	// TimeInstants of the seeding step do not follow ISO-8601
+	private static final DateTimeFormatter FALLBACK_FORMATTER = DateTimeFormatter.ofPattern("yyyy-MM-dd'T'HH:mm:ssZ");
+
+	private final Selector selector;
+	private final ServerSocketChannel serverChannel;
+	private final Thread selectorThread;
+	private final String url;
+	private volatile boolean closed;
+
+	// all state below is written by the selector thread, access is guarded by the sink itself
+	private final Map<String, EntityNotifications> entityNotifications = new HashMap<>();
+	private final Histogram lags = new Histogram(MAX_TRACKABLE_LAG_MILLIS, 3);
+	private long notificationCount;
+	private long malformedCount;
+	private Instant firstArrival;
+	private Instant lastArrival;
+
+	private NotificationSink(int port, String advertisedUrl) throws IOException {
+		selector = Selector.open();
+		serverChannel = ServerSocketChannel.open();
+		serverChannel.bind(new InetSocketAddress(port));
+		serverChannel.configureBlocking(false);
+		serverChannel.register(selector, SelectionKey.OP_ACCEPT);
+		int boundPort = ((InetSocketAddress) serverChannel.getLocalAddress()).getPort();
+		url = Optional.ofNullable(advertisedUrl)
+				.orElseGet(() -> String.format("http://%s:%s", getLocalHostAddress(), boundPort))
+				.replaceFirst("/$", "");
+		selectorThread = new Thread(this::serve, "notification-sink");
+		selectorThread.setDaemon(true);
+		selectorThread.start();
+	}
+
+	/**
+	 * Start a sink.
+	 *
+	 * @param port          port to listen on, 0 for an ephemeral one
+	 * @param advertisedUrl url the broker reaches the sink at, if null the address of the local host is used
+	 */
+	public static NotificationSink start(int port, String advertisedUrl) throws IOException {
+		return new NotificationSink(port, advertisedUrl);
+	}
+
+	/**
+	 * Url to be used as notification target of a subscription.
+	 */
+	public String getNotificationUrl() {
+		return String.format("%s/notify", url);
+	}
+
+	/**
+	 * Waits until the given number of distinct notifications arrived for the entity.
+	 *
+	 * @return true if they arrived within the timeout
+	 */
+	public synchronized boolean awaitNotifications(String entityId, int count, Duration timeout) throws InterruptedException {
+		long deadline = System.nanoTime() + timeout.toNanos();
+		while (getDistinctCount(entityId) < count) {
+			long remainingMillis = (deadline - System.nanoTime()) / 1_000_000;
+			if (remainingMillis <= 0) {
+				return false;
+			}
+			wait(remainingMillis);
+		}
+		return true;
+	}
+
+	public synchronized SinkReport getReport(String entityId) {
+		EntityNotifications notifications = Optional.ofNullable(entityNotifications.get(entityId)).orElseGet(EntityNotifications::new);
+		double seconds = firstArrival == null ? 0 : Duration.between(firstArrival, lastArrival).toNanos() / 1_000_000_000d;
+		return new SinkReport(notificationCount, malformedCount, notifications.count, notifications.timeInstants.size(),
+				notifications.duplicates, notifications.outOfOrder, seconds > 0 ? notificationCount / seconds : 0,
+				lags.getValueAtPercentile(50), lags.getValueAtPercentile(95), lags.getValueAtPercentile(99), lags.getMaxValue());
+	}
+
+	@Override
+	public void close() throws IOException {
+		closed = true;
+		selector.wakeup();
+		try {
+			selectorThread.join(Duration.ofSeconds(1).toMillis());
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+	}
+
+	private synchronized int getDistinctCount(String entityId) {
+		return Optional.ofNullable(entityNotifications.get(entityId)).map(n -> n.timeInstants.size()).orElse(0);
+	}
+
+	private void serve() {
+		try {
+			while (!closed) {
+				selector.select();
+				Iterator<SelectionKey> selectedKeys = selector.selectedKeys().iterator();
+				while (selectedKeys.hasNext()) {
+					SelectionKey key = selectedKeys.next();
+					selectedKeys.remove();
+					try {
+						if (key.isAcceptable()) {
+							accept();
+						} else if (key.isReadable()) {
+							read(key);
+						} else if (key.isWritable()) {
+							write(key);
+						}
+					} catch (IOException e) {
+						// connection was closed by the broker
+						key.cancel();
+						key.channel().close();
+					}
+				}
+			}
+		} catch (IOException e) {
+			// selector broke, nothing will be received anymore
+		} finally {
+			for (SelectionKey key : selector.keys()) {
+				try {
+					key.channel().close();
+				} catch (IOException e) {
+					// already closed
+				}
+			}
+			try {
+				selector.close();
+			} catch (IOException e) {
+				// already closed
+			}
+		}
+	}
+
+	private void accept() throws IOException {
+		SocketChannel channel = serverChannel.accept();
+		if (channel == null) {
+			return;
+		}
+		channel.configureBlocking(false);
+		channel.register(selector, SelectionKey.OP_READ, new Connection());
+	}
+
+	private void read(SelectionKey key) throws IOException {
+		SocketChannel channel = (SocketChannel) key.channel();
+		Connection connection = (Connection) key.attachment();
+		if (!connection.in.hasRemaining()) {
+			connection.in = grow(connection.in);
+		}
+		if (channel.read(connection.in) < 0) {
+			key.cancel();
+			channel.close();
+			return;
+		}
+		connection.in.flip();
+		// a connection might pipeline multiple requests
+		while (handleRequest(connection)) {
+			// continue with the next request
+		}
+		connection.in.compact();
+		write(key);
+	}
+
+	/**
+	 * Handles the next complete request in the connection's buffer.
+	 *
+	 * @return false if no complete request is buffered
+	 */
+	private boolean handleRequest(Connection connection) {
+		ByteBuffer in = connection.in;
+		int headerEnd = indexOf(in, HEADER_END);
+		if (headerEnd < 0) {
+			return false;
+		}
+		String[] headerLines = new String(in.array(), in.position(), headerEnd - in.position(), StandardCharsets.US_ASCII).split("\r\n");
+		int contentLength = 0;
+		boolean chunked = false;
+		boolean close = false;
+		for (int i = 1; i < headerLines.length; i++) {
+			String[] header = headerLines[i].split(":", 2);
+			if (header.length < 2) {
+				continue;
+			}
+			String name = header[0].trim().toLowerCase();
+			if ("content-length".equals(name)) {
+				contentLength = parseContentLength(header[1]);
+			} else if ("transfer-encoding".equals(name)) {
+				chunked = header[1].toLowerCase().contains("chunked");
+			} else if ("connection".equals(name)) {
+				close = header[1].toLowerCase().contains("close");
+			}
+		}
+		int bodyStart = headerEnd + HEADER_END.length;
+		if (contentLength < 0) {
+			// the end of the body is unknown, thus the connection can not be used any further
+			in.position(in.limit());
+			connection.close = true;
+			connection.respond("400 Bad Request");
+			return false;
+		}
+		if (chunked) {
+			// the broker always sends a content length
+			in.position(in.limit());
+			connection.close = true;
+			connection.respond("411 Length Required");
+			return false;
+		}
+		if (in.limit() - bodyStart < contentLength) {
+			if (bodyStart + contentLength > in.capacity()) {
+				connection.reserve(bodyStart - in.position() + contentLength);
+			}
+			return false;
+		}
+		connection.close = close;
+		String[] requestLine = headerLines[0].split(" ");
+		if (requestLine.length >= 2 && "POST".equals(requestLine[0]) && requestLine[1].startsWith("/notify")) {
+			record(in.array(), bodyStart, contentLength);
+			connection.respond("200 OK");
+		} else {
+			connection.respond("404 Not Found");
+		}
+		in.position(bodyStart + contentLength);
+		return true;
+	}
+
+	/**
+	 * @return the content length, -1 if it is malformed or exceeds the maximum body size
+	 */
+	private static int parseContentLength(String value) {
+		try {
+			int contentLength = Integer.parseInt(value.trim());
+			return contentLength > MAX_BODY_SIZE ? -1 : contentLength;
+		} catch (NumberFormatException e) {
+			return -1;
+		}
+	}
+
+	private void write(SelectionKey key) throws IOException {
+		SocketChannel channel = (SocketChannel) key.channel();
+		Connection connection = (Connection) key.attachment();
+		ByteBuffer out = connection.out;
+		out.flip();
+		channel.write(out);
+		boolean pending = out.hasRemaining();
+		out.compact();
+		if (!pending && connection.close) {
+			key.cancel();
+			channel.close();
+			return;
+		}
+		key.interestOps(pending ? SelectionKey.OP_WRITE : SelectionKey.OP_READ);
+	}
+
+	private synchronized void record(byte[] body, int offset, int length) {
+		Instant arrival = Instant.now();
+		JsonNode notification;
+		try {
+			notification = OBJECT_MAPPER.readTree(body, offset, length);
+		} catch (IOException e) {
+			malformedCount++;
+			return;
+		}
+		notificationCount++;
+		firstArrival = Optional.ofNullable(firstArrival).orElse(arrival);
+		lastArrival = arrival;
+		for (JsonNode entity : notification.path("data")) {
+			EntityNotifications notifications = entityNotifications.computeIfAbsent(entity.path("id").asText(), id -> new EntityNotifications());
+			notifications.count++;
+			Optional<Instant> optionalTimeInstant = getTimeInstant(entity);
+			if (optionalTimeInstant.isEmpty()) {
+				continue;
+			}
+			long timeInstant = optionalTimeInstant.get().toEpochMilli();
+			if (!notifications.timeInstants.add(timeInstant)) {
+				notifications.duplicates++;
+			} else if (timeInstant < notifications.latestTimeInstant) {
+				notifications.outOfOrder++;
+			}
+			notifications.latestTimeInstant = Math.max(notifications.latestTimeInstant, timeInstant);
+			lags.recordValue(Math.min(Math.max(arrival.toEpochMilli() - timeInstant, 0), MAX_TRACKABLE_LAG_MILLIS));
+		}
+		notifyAll();
+	}
+
+	private static Optional<Instant> getTimeInstant(JsonNode entity) {
+		for (JsonNode attribute : entity) {
+			JsonNode timeInstant = attribute.path("metadata").path("TimeInstant").path("value");
+			if (timeInstant.isTextual()) {
+				try {
+					return Optional.of(OffsetDateTime.parse(timeInstant.asText()).toInstant());
+				} catch (DateTimeParseException e) {
+					try {
+						return Optional.of(OffsetDateTime.parse(timeInstant.asText(), FALLBACK_FORMATTER).toInstant());
+					} catch (DateTimeParseException e2) {
+						return Optional.empty();
+					}
+				}
+			}
+		}
+		return Optional.empty();
+	}
+
+	private static int indexOf(ByteBuffer buffer, byte[] pattern) {
+		byte[] array = buffer.array();
+		for (int i = buffer.position(); i <= buffer.limit() - pattern.length; i++) {
+			int j = 0;
+			while (j < pattern.length && array[i + j] == pattern[j]) {
+				j++;
+			}
+			if (j == pattern.length) {
+				return i;
+			}
+		}
+		return -1;
+	}
+
+	private static ByteBuffer grow(ByteBuffer buffer) {
+		ByteBuffer grown = ByteBuffer.allocate(buffer.capacity() * 2);
+		buffer.flip();
+		return grown.put(buffer);
+	}
+
+	private static String getLocalHostAddress() {
+		try {
+			return InetAddress.getLocalHost().getHostAddress();
+		} catch (IOException e) {
+			return InetAddress.getLoopbackAddress().getHostAddress();
+		}
+	}
+
+	private static class Connection {
+
+		// in read mode while requests are handled, in write mode otherwise
+		private ByteBuffer in = ByteBuffer.allocate(INITIAL_BUFFER_SIZE);
+		private ByteBuffer out = ByteBuffer.allocate(1024);
+		private boolean close;
+
+		private void respond(String status) {
+			byte[] response = String.format("HTTP/1.1 %s\r\nContent-Length: 0\r\n%s\r\n", status, close ? "Connection: close\r\n" : "")
+					.getBytes(StandardCharsets.US_ASCII);
+			if (out.remaining() < response.length) {
+				out = grow(out);
+			}
+			out.put(response);
+		}
+
+		/**
+		 * Make room for a request of the given size, keeping the buffered part of it.
+		 */
+		private void reserve(int requestSize) {
+			ByteBuffer reserved = ByteBuffer.allocate(Math.max(requestSize, in.capacity() * 2));
+			reserved.put(in);
+			reserved.flip();
+			in = reserved;
+		}
+	}
+
+	private static class EntityNotifications {
+
+		private final Set<Long> timeInstants = new HashSet<>();
+		private long count;
+		private long duplicates;
+		private long outOfOrder;
+		private long latestTimeInstant = Long.MIN_VALUE;
+	}
+
+	/**
+	 * Notifications received by the sink, with the delivery checks of a single entity. Lags are in milliseconds.
+	 */
+	public static class SinkReport {
+
+		private final long notifications;
+		private final long malformed;
+		private final long entityNotifications;
+		private final long distinct;
+		private final long duplicates;
+		private final long outOfOrder;
+		private final double notificationsPerSecond;
+		private final long lagP50;
+		private final long lagP95;
+		private final long lagP99;
+		private final long lagMax;
+
+		public SinkReport(long notifications, long malformed, long entityNotifications, long distinct, long duplicates,
+						  long outOfOrder, double notificationsPerSecond, long lagP50, long lagP95, long lagP99, long lagMax) {
+			this.notifications = notifications;
+			this.malformed = malformed;
+			this.entityNotifications = entityNotifications;
+			this.distinct = distinct;
+			this.duplicates = duplicates;
+			this.outOfOrder = outOfOrder;
+			this.notificationsPerSecond = notificationsPerSecond;
+			this.lagP50 = lagP50;
+			this.lagP95 = lagP95;
+			this.lagP99 = lagP99;
+			this.lagMax = lagMax;
+		}
+
+		public long getNotifications() {
+			return notifications;
+		}
+
+		public long getMalformed() {
+			return malformed;
+		}
+
+		public long getEntityNotifications() {
+			return entityNotifications;
+		}
+
+		public long getDistinct() {
+			return distinct;
+		}
+
+		public long getDuplicates() {
+			return duplicates;
+		}
+
+		public long getOutOfOrder() {
+			return outOfOrder;
+		}
+
+		public double getNotificationsPerSecond() {
+			return notificationsPerSecond;
+		}
+
+		public long getLagP50() {
+			return lagP50;
+		}
+
+		public long getLagP95() {
+			return lagP95;
+		}
+
+		public long getLagP99() {
+			return lagP99;
+		}
+
+		public long getLagMax() {
+			return lagMax;
+		}
+
+		@Override
+		public String toString() {
+			return String.format("Sink received %s notifications(%s malformed, %.1f/s), %s for the entity(%s distinct, %s duplicates, %s out of order). Lag p50/p95/p99/max: %s/%s/%s/%s ms.",
+					notifications, malformed, notificationsPerSecond, entityNotifications, distinct, duplicates, outOfOrder,
+					lagP50, lagP95, lagP99, lagMax);
+		}
+	}
+}
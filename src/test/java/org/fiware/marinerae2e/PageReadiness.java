@@ -0,0 +1,142 @@
+package org.fiware.marinerae2e;
+
+import org.openqa.selenium.By;
+import org.openqa.selenium.JavascriptExecutor;
+import org.openqa.selenium.NoSuchElementException;
+import org.openqa.selenium.StaleElementReferenceException;
+import org.openqa.selenium.TimeoutException;
+import org.openqa.selenium.WebDriver;
+import org.openqa.selenium.WebElement;
+
+import java.time.Duration;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.function.Function;
+import java.util.stream.Collectors;
+
+/**
+ * Central place for all waits on the browser. Conditions are polled with an adaptive interval, starting fast and
+ * backing off while the page is not ready. The time spent waiting is recorded per step, to make idle time visible.
+ */
+public class PageReadiness {
+
+	private static final Duration MIN_POLL_INTERVAL = Duration.ofMillis(25);
+	private static final Duration MAX_POLL_INTERVAL = Duration.ofSeconds(1);
+
+	// elements grafana shows while a panel is still running its queries
+	private static final String PANEL_LOADING_SELECTOR = String.join(", ",
+			".panel-loading",
+			"[aria-label='Panel loading bar']",
+			"[data-testid='panel-loading-bar']");
+	// reports whether the page is loaded, no panel is loading anymore and the number of finished network requests. The
+	// resource timing buffer is raised first, a full buffer(250 entries by default) would stop the count from growing.
+	private static final String READINESS_SCRIPT = "performance.setResourceTimingBufferSize(10000);" +
+			"return [document.readyState === 'complete', " +
+			"document.querySelectorAll(\"" + PANEL_LOADING_SELECTOR + "\").length === 0, " +
+			"performance.getEntriesByType('resource').length];";
+
+	private final WebDriver webDriver;
+	private final Duration defaultTimeout;
+	// time without new network requests, after that the page is considered idle
+	private final Duration networkQuietPeriod;
+	// time spent waiting in nanoseconds, per step
+	private final Map<String, Long> waitTimes = new LinkedHashMap<>();
+
+	public PageReadiness(WebDriver webDriver, Duration defaultTimeout, Duration networkQuietPeriod) {
+		this.webDriver = webDriver;
+		this.defaultTimeout = defaultTimeout;
+		this.networkQuietPeriod = networkQuietPeriod;
+	}
+
+	/**
+	 * Waits until the condition returns something else than null or false.
+	 *
+	 * @param step      name of the step the waiting time is accounted to
+	 * @param condition the condition to be fulfilled, element lookup failures are treated as not fulfilled
+	 * @return the condition's result
+	 */
+	public <T> T until(String step, Function<? super WebDriver, T> condition) {
+		return until(step, defaultTimeout, condition);
+	}
+
+	public <T> T until(String step, Duration timeout, Function<? super WebDriver, T> condition) {
+		long start = System.nanoTime();
+		long deadline = start + timeout.toNanos();
+		Duration pollInterval = MIN_POLL_INTERVAL;
+		try {
+			while (true) {
+				try {
+					T result = condition.apply(webDriver);
+					if (result != null && !Boolean.FALSE.equals(result)) {
+						return result;
+					}
+				} catch (NoSuchElementException | StaleElementReferenceException e) {
+					// page not ready yet
+				}
+				if (System.nanoTime() + pollInterval.toNanos() > deadline) {
+					throw new TimeoutException(String.format("Step '%s' was not ready within %s.", step, timeout));
+				}
+				sleep(pollInterval);
+				pollInterval = pollInterval.multipliedBy(2).compareTo(MAX_POLL_INTERVAL) > 0 ? MAX_POLL_INTERVAL : pollInterval.multipliedBy(2);
+			}
+		} finally {
+			waitTimes.merge(step, System.nanoTime() - start, Long::sum);
+		}
+	}
+
+	/**
+	 * Waits for the element to be present.
+	 */
+	public WebElement findElement(String step, By by) {
+		return until(step, driver -> driver.findElements(by).stream().findFirst().orElse(null));
+	}
+
+	/**
+	 * Waits for at least one matching element to be present.
+	 */
+	public List<WebElement> findElements(String step, By by) {
+		return until(step, driver -> {
+			List<WebElement> elements = driver.findElements(by);
+			return elements.isEmpty() ? null : elements;
+		});
+	}
+
+	/**
+	 * Waits until the dashboard finished loading: the document is complete, no panel shows its loading indicator and
+	 * no network request finished during the quiet period.
+	 */
+	public void awaitPanelsLoaded(String step) {
+		long[] lastRequestCount = {-1};
+		long[] lastChange = {System.nanoTime()};
+		until(step, driver -> {
+			List<?> readiness = (List<?>) ((JavascriptExecutor) driver).executeScript(READINESS_SCRIPT);
+			long requestCount = ((Number) readiness.get(2)).longValue();
+			if (requestCount != lastRequestCount[0]) {
+				lastRequestCount[0] = requestCount;
+				lastChange[0] = System.nanoTime();
+				return false;
+			}
+			boolean networkIdle = System.nanoTime() - lastChange[0] >= networkQuietPeriod.toNanos();
+			return Boolean.TRUE.equals(readiness.get(0)) && Boolean.TRUE.equals(readiness.get(1)) && networkIdle;
+		});
+	}
+
+	/**
+	 * Time spent waiting, per step.
+	 */
+	public String getReport() {
+		return waitTimes.entrySet().stream()
+				.map(e -> String.format("%s: %s ms", e.getKey(), Duration.ofNanos(e.getValue()).toMillis()))
+				.collect(Collectors.joining(", ", "Time spent waiting - ", "."));
+	}
+
+	private static void sleep(Duration duration) {
+		try {
+			Thread.sleep(duration.toMillis());
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new TimeoutException("Interrupted while waiting.");
+		}
+	}
+}
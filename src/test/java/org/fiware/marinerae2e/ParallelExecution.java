@@ -0,0 +1,54 @@
+package org.fiware.marinerae2e;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.UncheckedIOException;
+import java.util.Properties;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Information about the parallel execution of the scenarios, as configured in the junit-platform.properties.
+ */
+public final class ParallelExecution {
+
+	private static final Properties PLATFORM_PROPERTIES = loadPlatformProperties();
+	private static final AtomicInteger WORKER_COUNTER = new AtomicInteger();
+	private static final ThreadLocal<String> WORKER_ID = ThreadLocal.withInitial(() -> String.format("w%s", WORKER_COUNTER.incrementAndGet()));
+
+	private ParallelExecution() {
+		// prevent instantiation
+	}
+
+	public static boolean isEnabled() {
+		return Boolean.parseBoolean(PLATFORM_PROPERTIES.getProperty("cucumber.execution.parallel.enabled"));
+	}
+
+	/**
+	 * Number of scenarios running at the same time.
+	 */
+	public static int getParallelism() {
+		if (!isEnabled()) {
+			return 1;
+		}
+		return Integer.parseInt(PLATFORM_PROPERTIES.getProperty("cucumber.execution.parallel.config.fixed.parallelism", "1"));
+	}
+
+	/**
+	 * Id of the worker executing the current scenario. Stays the same for all scenarios run by the worker.
+	 */
+	public static String getWorkerId() {
+		return WORKER_ID.get();
+	}
+
+	private static Properties loadPlatformProperties() {
+		Properties properties = new Properties();
+		try (InputStream propertiesStream = ParallelExecution.class.getClassLoader().getResourceAsStream("junit-platform.properties")) {
+			if (propertiesStream != null) {
+				properties.load(propertiesStream);
+			}
+		} catch (IOException e) {
+			throw new UncheckedIOException("Was not able to read the junit-platform.properties.", e);
+		}
+		return properties;
+	}
+}
@@ -0,0 +1,189 @@
+package org.fiware.marinerae2e;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+/**
+ * Growable byte buffer to render json payloads into. The buffer is meant to be reset and reused, so that rendering does
+ * not allocate once it reached the size of the largest payload.
+ */
+public class PayloadBuffer {
+
+	private static final byte[] HEX_DIGITS = "0123456789abcdef".getBytes(StandardCharsets.US_ASCII);
+	// numbers are written with a fixed maximum of fractional digits
+	private static final int FRACTION_DIGITS = 6;
+	private static final long FRACTION_SCALE = 1_000_000L;
+	// above, the scaled value could overflow a long
+	private static final double MAX_FIXED_POINT_VALUE = 1e12;
+
+	private byte[] bytes;
+	private int size;
+
+	public PayloadBuffer() {
+		this(1024);
+	}
+
+	public PayloadBuffer(int initialCapacity) {
+		this.bytes = new byte[Math.max(initialCapacity, 16)];
+	}
+
+	public PayloadBuffer reset() {
+		size = 0;
+		return this;
+	}
+
+	public int size() {
+		return size;
+	}
+
+	/**
+	 * The underlying array, valid from 0 to size(). It is only valid until the buffer is written again.
+	 */
+	public byte[] array() {
+		return bytes;
+	}
+
+	public byte[] toByteArray() {
+		return Arrays.copyOf(bytes, size);
+	}
+
+	@Override
+	public String toString() {
+		return new String(bytes, 0, size, StandardCharsets.UTF_8);
+	}
+
+	/**
+	 * Write the bytes as they are, e.g. a precompiled segment of a template.
+	 */
+	public void writeRaw(byte[] raw) {
+		ensureCapacity(raw.length);
+		System.arraycopy(raw, 0, bytes, size, raw.length);
+		size += raw.length;
+	}
+
+	/**
+	 * Write the value as content of a json string, without the surrounding quotes.
+	 */
+	public void writeEscaped(CharSequence value) {
+		// worst case is a 3 byte utf-8 sequence or a 6 byte escape per char
+		ensureCapacity(value.length() * 6);
+		for (int i = 0; i < value.length(); i++) {
+			char c = value.charAt(i);
+			if (c == '"' || c == '\\') {
+				bytes[size++] = '\\';
+				bytes[size++] = (byte) c;
+			} else if (c < 0x20) {
+				bytes[size++] = '\\';
+				bytes[size++] = 'u';
+				bytes[size++] = '0';
+				bytes[size++] = '0';
+				bytes[size++] = HEX_DIGITS[c >> 4];
+				bytes[size++] = HEX_DIGITS[c & 0xF];
+			} else if (c < 0x80) {
+				bytes[size++] = (byte) c;
+			} else if (c < 0x800) {
+				bytes[size++] = (byte) (0xC0 | (c >> 6));
+				bytes[size++] = (byte) (0x80 | (c & 0x3F));
+			} else if (Character.isHighSurrogate(c) && i + 1 < value.length() && Character.isLowSurrogate(value.charAt(i + 1))) {
+				int codePoint = Character.toCodePoint(c, value.charAt(++i));
+				bytes[size++] = (byte) (0xF0 | (codePoint >> 18));
+				bytes[size++] = (byte) (0x80 | ((codePoint >> 12) & 0x3F));
+				bytes[size++] = (byte) (0x80 | ((codePoint >> 6) & 0x3F));
+				bytes[size++] = (byte) (0x80 | (codePoint & 0x3F));
+			} else {
+				bytes[size++] = (byte) (0xE0 | (c >> 12));
+				bytes[size++] = (byte) (0x80 | ((c >> 6) & 0x3F));
+				bytes[size++] = (byte) (0x80 | (c & 0x3F));
+			}
+		}
+	}
+
+	/**
+	 * Write the number as json number. Values are rounded to 6 fractional digits.
+	 */
+	public void writeNumber(double value) {
+		if (Double.isNaN(value) || Double.isInfinite(value)) {
+			throw new IllegalArgumentException(String.format("%s is not a valid json number.", value));
+		}
+		if (Math.abs(value) >= MAX_FIXED_POINT_VALUE) {
+			// rare enough to accept the allocation
+			writeRaw(Double.toString(value).getBytes(StandardCharsets.US_ASCII));
+			return;
+		}
+		long scaled = Math.round(Math.abs(value) * FRACTION_SCALE);
+		if (value < 0 && scaled != 0) {
+			writeByte('-');
+		}
+		writeLong(scaled / FRACTION_SCALE);
+		long fraction = scaled % FRACTION_SCALE;
+		writeByte('.');
+		if (fraction == 0) {
+			writeByte('0');
+			return;
+		}
+		int digits = FRACTION_DIGITS;
+		while (fraction % 10 == 0) {
+			fraction /= 10;
+			digits--;
+		}
+		ensureCapacity(digits);
+		for (int i = size + digits - 1; i >= size; i--) {
+			bytes[i] = (byte) ('0' + fraction % 10);
+			fraction /= 10;
+		}
+		size += digits;
+	}
+
+	/**
+	 * Write a non-negative long.
+	 */
+	public void writeLong(long value) {
+		int digits = 1;
+		for (long rest = value / 10; rest > 0; rest /= 10) {
+			digits++;
+		}
+		ensureCapacity(digits);
+		for (int i = size + digits - 1; i >= size; i--) {
+			bytes[i] = (byte) ('0' + value % 10);
+			value /= 10;
+		}
+		size += digits;
+	}
+
+	public void writeByte(char c) {
+		ensureCapacity(1);
+		bytes[size++] = (byte) c;
+	}
+
+	/**
+	 * Repeat an already written part of the buffer, e.g. a value that occurs multiple times in the payload.
+	 */
+	public void copyWithin(int from, int to) {
+		int length = to - from;
+		ensureCapacity(length);
+		System.arraycopy(bytes, from, bytes, size, length);
+		size += length;
+	}
+
+	/**
+	 * Encode the constant parts of a template. The first and last part are taken as they are(json syntax), the ones
+	 * between are escaped(names and values).
+	 */
+	public static byte[] encode(String... parts) {
+		PayloadBuffer buffer = new PayloadBuffer();
+		for (int i = 0; i < parts.length; i++) {
+			if (i == 0 || i == parts.length - 1) {
+				buffer.writeRaw(parts[i].getBytes(StandardCharsets.UTF_8));
+			} else {
+				buffer.writeEscaped(parts[i]);
+			}
+		}
+		return buffer.toByteArray();
+	}
+
+	private void ensureCapacity(int additional) {
+		if (size + additional > bytes.length) {
+			bytes = Arrays.copyOf(bytes, Math.max(bytes.length * 2, size + additional));
+		}
+	}
+}
@@ -0,0 +1,235 @@
+package org.fiware.marinerae2e;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.node.ArrayNode;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+import org.HdrHistogram.ConcurrentHistogram;
+import org.HdrHistogram.Histogram;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Suite-wide collection of timings: the wall time of every cucumber step(including hooks), the phases of every http
+ * call and the browser-side rendering of dashboards. At the end of the run, the timings are written as json and
+ * csv(and optionally in the prometheus text format) and compared against the report of an earlier run.
+ */
+public final class PerformanceReport {
+
+	private static final ObjectMapper OBJECT_MAPPER = new ObjectMapper();
+	// highest duration to be tracked, everything above is clamped
+	private static final long MAX_TRACKABLE_MICROS = TimeUnit.HOURS.toMicros(1);
+
+	private static final Map<Category, Map<String, Timing>> TIMINGS = new ConcurrentHashMap<>();
+
+	private PerformanceReport() {
+		// prevent instantiation
+	}
+
+	/**
+	 * The kind of a timing.
+	 */
+	public enum Category {
+		STEP("e2e_step_duration_seconds", "Wall time of the cucumber steps and hooks."),
+		HTTP("e2e_http_phase_duration_seconds", "Duration of the phases of http calls(dns, connect, tls, ttfb, call)."),
+		DASHBOARD("e2e_dashboard_duration_seconds", "Browser-side time until all panels of a dashboard rendered and of its slowest panel queries.");
+
+		private final String metricName;
+		private final String help;
+
+		Category(String metricName, String help) {
+			this.metricName = metricName;
+			this.help = help;
+		}
+	}
+
+	public static void record(Category category, String name, Duration duration) {
+		long micros = Math.min(Math.max(TimeUnit.NANOSECONDS.toMicros(duration.toNanos()), 0), MAX_TRACKABLE_MICROS);
+		TIMINGS.computeIfAbsent(category, c -> new ConcurrentHashMap<>())
+				.computeIfAbsent(name, n -> new Timing())
+				.record(micros);
+	}
+
+	/**
+	 * Summary of all timings recorded so far, ordered by category and name.
+	 */
+	public static List<TimingSummary> getSummaries() {
+		List<TimingSummary> summaries = new ArrayList<>();
+		TIMINGS.forEach((category, timings) -> timings.forEach((name, timing) -> summaries.add(timing.summarize(category, name))));
+		summaries.sort(Comparator.comparing(TimingSummary::getCategory).thenComparing(TimingSummary::getName));
+		return summaries;
+	}
+
+	public static void writeJson(File file) throws IOException {
+		ObjectNode report = OBJECT_MAPPER.createObjectNode();
+		ArrayNode timings = report.putArray("timings");
+		getSummaries().forEach(summary -> timings.add(OBJECT_MAPPER.valueToTree(summary)));
+		createParent(file);
+		OBJECT_MAPPER.writerWithDefaultPrettyPrinter().writeValue(file, report);
+	}
+
+	public static void writeCsv(File file) throws IOException {
+		createParent(file);
+		try (PrintWriter writer = new PrintWriter(file, StandardCharsets.UTF_8)) {
+			writer.println("category,name,count,meanMs,p50Ms,p95Ms,maxMs");
+			for (TimingSummary summary : getSummaries()) {
+				writer.printf("%s,\"%s\",%s,%.3f,%.3f,%.3f,%.3f%n", summary.getCategory(), summary.getName().replace("\"", "\"\""),
+						summary.getCount(), summary.getMeanMs(), summary.getP50Ms(), summary.getP95Ms(), summary.getMaxMs());
+			}
+		}
+	}
+
+	/**
+	 * Write the timings as summaries in the prometheus text format, e.g. to be picked up by the node-exporter's
+	 * textfile collector.
+	 */
+	public static void writePrometheus(File file) throws IOException {
+		List<TimingSummary> summaries = getSummaries();
+		createParent(file);
+		try (PrintWriter writer = new PrintWriter(file, StandardCharsets.UTF_8)) {
+			for (Category category : Category.values()) {
+				writer.printf("# HELP %s %s%n", category.metricName, category.help);
+				writer.printf("# TYPE %s summary%n", category.metricName);
+				for (TimingSummary summary : summaries) {
+					if (summary.getCategory() != category) {
+						continue;
+					}
+					String name = escapeLabel(summary.getName());
+					writer.printf("%s{name=\"%s\",quantile=\"0.5\"} %s%n", category.metricName, name, summary.getP50Ms() / 1000);
+					writer.printf("%s{name=\"%s\",quantile=\"0.95\"} %s%n", category.metricName, name, summary.getP95Ms() / 1000);
+					writer.printf("%s_sum{name=\"%s\"} %s%n", category.metricName, name, summary.getTotalMs() / 1000);
+					writer.printf("%s_count{name=\"%s\"} %s%n", category.metricName, name, summary.getCount());
+				}
+			}
+		}
+	}
+
+	/**
+	 * Compare the mean durations against an earlier json report. Timings that only exist in one of the reports are
+	 * ignored.
+	 *
+	 * @param baselineFile json report of an earlier run
+	 * @param threshold    allowed relative increase of the mean, e.g. 0.2 for 20%
+	 * @param minDelta     increases below this are considered noise
+	 * @return description of all regressions
+	 */
+	public static List<String> compareWithBaseline(File baselineFile, double threshold, Duration minDelta) throws IOException {
+		Map<String, Double> baselineMeans = new HashMap<>();
+		for (JsonNode timing : OBJECT_MAPPER.readTree(baselineFile).path("timings")) {
+			baselineMeans.put(getKey(timing.path("category").asText(), timing.path("name").asText()), timing.path("meanMs").asDouble());
+		}
+		double minDeltaMs = minDelta.toNanos() / 1_000_000d;
+		List<String> regressions = new ArrayList<>();
+		for (TimingSummary summary : getSummaries()) {
+			Double baselineMean = baselineMeans.get(getKey(summary.getCategory().name(), summary.getName()));
+			if (baselineMean == null) {
+				continue;
+			}
+			double delta = summary.getMeanMs() - baselineMean;
+			if (delta > minDeltaMs && summary.getMeanMs() > baselineMean * (1 + threshold)) {
+				regressions.add(String.format("%s '%s': %.1f ms -> %.1f ms", summary.getCategory(), summary.getName(), baselineMean, summary.getMeanMs()));
+			}
+		}
+		return regressions;
+	}
+
+	private static String getKey(String category, String name) {
+		return String.format("%s/%s", category, name);
+	}
+
+	private static String escapeLabel(String value) {
+		return value.replace("\\", "\\\\").replace("\"", "\\\"").replace("\n", "\\n");
+	}
+
+	private static void createParent(File file) {
+		Optional.ofNullable(file.getParentFile()).ifPresent(File::mkdirs);
+	}
+
+	private static class Timing {
+
+		private final Histogram histogram = new ConcurrentHistogram(MAX_TRACKABLE_MICROS, 3);
+		private final LongAdder totalMicros = new LongAdder();
+
+		private void record(long micros) {
+			histogram.recordValue(micros);
+			totalMicros.add(micros);
+		}
+
+		private TimingSummary summarize(Category category, String name) {
+			return new TimingSummary(category, name, histogram.getTotalCount(), totalMicros.sum() / 1000d,
+					histogram.getMean() / 1000, histogram.getValueAtPercentile(50) / 1000d,
+					histogram.getValueAtPercentile(95) / 1000d, histogram.getMaxValue() / 1000d);
+		}
+	}
+
+	/**
+	 * Aggregated durations of one step or http phase.
+	 */
+	public static class TimingSummary {
+
+		private final Category category;
+		private final String name;
+		private final long count;
+		private final double totalMs;
+		private final double meanMs;
+		private final double p50Ms;
+		private final double p95Ms;
+		private final double maxMs;
+
+		public TimingSummary(Category category, String name, long count, double totalMs, double meanMs, double p50Ms, double p95Ms, double maxMs) {
+			this.category = category;
+			this.name = name;
+			this.count = count;
+			this.totalMs = totalMs;
+			this.meanMs = meanMs;
+			this.p50Ms = p50Ms;
+			this.p95Ms = p95Ms;
+			this.maxMs = maxMs;
+		}
+
+		public Category getCategory() {
+			return category;
+		}
+
+		public String getName() {
+			return name;
+		}
+
+		public long getCount() {
+			return count;
+		}
+
+		public double getTotalMs() {
+			return totalMs;
+		}
+
+		public double getMeanMs() {
+			return meanMs;
+		}
+
+		public double getP50Ms() {
+			return p50Ms;
+		}
+
+		public double getP95Ms() {
+			return p95Ms;
+		}
+
+		public double getMaxMs() {
+			return maxMs;
+		}
+	}
+}
@@ -0,0 +1,200 @@
+package org.fiware.marinerae2e;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import okhttp3.HttpUrl;
+import okhttp3.OkHttpClient;
+import okhttp3.Request;
+import okhttp3.Response;
+import org.HdrHistogram.Histogram;
+
+import java.io.IOException;
+import java.time.Duration;
+import java.time.Instant;
+import java.time.LocalDateTime;
+import java.time.OffsetDateTime;
+import java.time.ZoneOffset;
+import java.time.format.DateTimeFormatter;
+import java.time.format.DateTimeParseException;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Measures how long it takes for samples written to the broker to become queryable at QuantumLeap. Every sample is
+ * tagged with its send time as TimeInstant, QuantumLeap is polled with an adaptive backoff until all of them are
+ * part of the entity's history. Samples can be registered while the tracker is already polling.
+ */
+public class PropagationLatencyTracker {
+
+	private static final ObjectMapper OBJECT_MAPPER = new ObjectMapper();
+	private static final long MAX_TRACKABLE_LATENCY_MILLIS = Duration.ofHours(1).toMillis();
+
+	private final OkHttpClient httpClient;
+	private final HttpUrl historyUrl;
+	private final String fiwareService;
+	private final String fiwareServicePath;
+
+	// send time of all samples that are not yet visible in QuantumLeap, identified by their TimeInstant(epoch millis)
+	private final Map<Long, Instant> pendingSamples = new ConcurrentHashMap<>();
+	private final AtomicInteger sampleCount = new AtomicInteger();
+	// only accessed by the polling thread
+	private final Histogram latencies = new Histogram(MAX_TRACKABLE_LATENCY_MILLIS, 3);
+	private volatile Instant earliestSample;
+	private int pollCount;
+
+	public PropagationLatencyTracker(OkHttpClient httpClient, String quantumLeapUrl, String fiwareService,
+									 String fiwareServicePath, String entityId, String entityType) {
+		this.httpClient = httpClient;
+		this.historyUrl = HttpUrl.get(quantumLeapUrl).newBuilder()
+				.addPathSegment("v2")
+				.addPathSegment("entities")
+				.addPathSegment(entityId)
+				.addQueryParameter("type", entityType)
+				.addQueryParameter("attrs", "temperature")
+				.build();
+		this.fiwareService = fiwareService;
+		this.fiwareServicePath = fiwareServicePath;
+	}
+
+	/**
+	 * Registers a sample that was sent to the broker.
+	 *
+	 * @param timeInstant the TimeInstant the sample was tagged with, which also is the time it was sent at
+	 */
+	public void sampleSent(Instant timeInstant) {
+		if (earliestSample == null) {
+			earliestSample = timeInstant;
+		}
+		pendingSamples.put(timeInstant.toEpochMilli(), timeInstant);
+		sampleCount.incrementAndGet();
+	}
+
+	/**
+	 * Polls QuantumLeap until the sending is done and all registered samples are visible or the timeout is reached.
+	 * The poll interval starts at the minimum and is doubled as long as no new samples show up, up to the maximum.
+	 *
+	 * @param sending completes once all samples are sent, samples need to be sent in chronological order
+	 * @return the latencies of all samples found
+	 */
+	public LatencyReport awaitPropagation(CompletableFuture<?> sending, Duration timeout, Duration minPollInterval, Duration maxPollInterval) throws InterruptedException {
+		Instant deadline = Instant.now().plus(timeout);
+		Duration pollInterval = minPollInterval;
+		while ((!sending.isDone() || !pendingSamples.isEmpty()) && Instant.now().isBefore(deadline)) {
+			int found = earliestSample == null ? 0 : poll();
+			if (found > 0) {
+				pollInterval = minPollInterval;
+				continue;
+			}
+			Thread.sleep(pollInterval.toMillis());
+			pollInterval = pollInterval.multipliedBy(2);
+			if (pollInterval.compareTo(maxPollInterval) > 0) {
+				pollInterval = maxPollInterval;
+			}
+		}
+		return new LatencyReport(sampleCount.get(), pendingSamples.size(), pollCount, latencies);
+	}
+
+	/**
+	 * Requests the history and records the latency for all pending samples contained.
+	 *
+	 * @return number of samples that became visible with this poll
+	 */
+	private int poll() {
+		pollCount++;
+		Request historyRequest = new Request.Builder()
+				.url(historyUrl.newBuilder().addQueryParameter("fromDate", DateTimeFormatter.ISO_INSTANT.format(earliestSample)).build())
+				.addHeader("Fiware-Service", fiwareService)
+				.addHeader("Fiware-ServicePath", fiwareServicePath)
+				.build();
+		try (Response response = httpClient.newCall(historyRequest).execute()) {
+			// the entity is unknown until the first notification was persisted
+			if (!response.isSuccessful()) {
+				return 0;
+			}
+			Instant observedAt = Instant.now();
+			int found = 0;
+			for (JsonNode index : OBJECT_MAPPER.readTree(response.body().byteStream()).path("index")) {
+				Instant sendTime = pendingSamples.remove(parseIndex(index.asText()).toEpochMilli());
+				if (sendTime != null) {
+					latencies.recordValue(Math.min(Duration.between(sendTime, observedAt).toMillis(), MAX_TRACKABLE_LATENCY_MILLIS));
+					found++;
+				}
+			}
+			return found;
+		} catch (IOException e) {
+			// quantumleap not reachable at the moment, retry with the next poll.
+			return 0;
+		}
+	}
+
+	/**
+	 * QuantumLeap returns the time index with offset, depending on the backend it may also be returned without.
+	 */
+	static Instant parseIndex(String index) {
+		try {
+			return OffsetDateTime.parse(index).toInstant();
+		} catch (DateTimeParseException e) {
+			return LocalDateTime.parse(index).toInstant(ZoneOffset.UTC);
+		}
+	}
+
+	/**
+	 * Propagation latencies of a tracked run, in milliseconds. Serialized as the machine-readable report.
+	 */
+	public static class LatencyReport {
+
+		private final int samples;
+		private final int missing;
+		private final int polls;
+		private final long p50;
+		private final long p95;
+		private final long p99;
+		private final long max;
+
+		public LatencyReport(int samples, int missing, int polls, Histogram latencies) {
+			this.samples = samples;
+			this.missing = missing;
+			this.polls = polls;
+			this.p50 = latencies.getValueAtPercentile(50);
+			this.p95 = latencies.getValueAtPercentile(95);
+			this.p99 = latencies.getValueAtPercentile(99);
+			this.max = latencies.getMaxValue();
+		}
+
+		public int getSamples() {
+			return samples;
+		}
+
+		public int getMissing() {
+			return missing;
+		}
+
+		public int getPolls() {
+			return polls;
+		}
+
+		public long getP50() {
+			return p50;
+		}
+
+		public long getP95() {
+			return p95;
+		}
+
+		public long getP99() {
+			return p99;
+		}
+
+		public long getMax() {
+			return max;
+		}
+
+		@Override
+		public String toString() {
+			return String.format("%s of %s samples arrived at QuantumLeap within %s polls. Latency(ms): p50=%s p95=%s p99=%s max=%s",
+					samples - missing, samples, polls, p50, p95, p99, max);
+		}
+	}
+}
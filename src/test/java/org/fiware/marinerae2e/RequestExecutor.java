@@ -0,0 +1,180 @@
+package org.fiware.marinerae2e;
+
+import okhttp3.HttpUrl;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Suite-wide executor for blocking requests towards the broker and QuantumLeap. On JDK 21+, every request runs on its
+ * own virtual thread, thus thousands of requests can be in flight without a large thread pool. On older JDKs(or with
+ * REQUEST_EXECUTOR=platform), a bounded pool of platform threads is used instead. In both cases, the number of
+ * concurrent requests per host is capped by REQUEST_MAX_PER_HOST.
+ */
+public final class RequestExecutor {
+
+	private static final String MODE = Optional.ofNullable(System.getenv("REQUEST_EXECUTOR")).orElse("auto");
+	private static final int PLATFORM_THREADS = Optional.ofNullable(System.getenv("REQUEST_PLATFORM_THREADS")).map(Integer::parseInt).orElse(32);
+	private static final int MAX_PER_HOST = Optional.ofNullable(System.getenv("REQUEST_MAX_PER_HOST")).map(Integer::parseInt).orElse(64);
+
+	private static final Map<String, Semaphore> HOST_PERMITS = new ConcurrentHashMap<>();
+	private static final Optional<ExecutorService> VIRTUAL_EXECUTOR = "platform".equalsIgnoreCase(MODE) ? Optional.empty() : createVirtualExecutor();
+	private static final ExecutorService EXECUTOR = VIRTUAL_EXECUTOR.orElseGet(RequestExecutor::createPlatformExecutor);
+
+	private RequestExecutor() {
+		// prevent instantiation
+	}
+
+	/**
+	 * True if the requests run on virtual threads.
+	 */
+	public static boolean isVirtual() {
+		return VIRTUAL_EXECUTOR.isPresent();
+	}
+
+	/**
+	 * The underlying executor, e.g. for long-running background tasks.
+	 */
+	public static ExecutorService getExecutor() {
+		return EXECUTOR;
+	}
+
+	/**
+	 * Open a scope to fork requests in. Closing the scope cancels all of its requests that did not finish yet, thus no
+	 * request outlives the step that started it.
+	 *
+	 * @param maxConcurrency maximum number of requests of this scope to run at the same time
+	 */
+	public static Scope openScope(int maxConcurrency) {
+		return new Scope(maxConcurrency);
+	}
+
+	/**
+	 * Executor creating a virtual thread per task. Since the suite is compiled for JDK 17, it is created reflectively.
+	 */
+	private static Optional<ExecutorService> createVirtualExecutor() {
+		if (Runtime.version().feature() < 21) {
+			return Optional.empty();
+		}
+		try {
+			return Optional.of((ExecutorService) Executors.class.getMethod("newVirtualThreadPerTaskExecutor").invoke(null));
+		} catch (ReflectiveOperationException | RuntimeException e) {
+			return Optional.empty();
+		}
+	}
+
+	private static ExecutorService createPlatformExecutor() {
+		AtomicInteger threadNumber = new AtomicInteger();
+		ThreadPoolExecutor platformExecutor = new ThreadPoolExecutor(PLATFORM_THREADS, PLATFORM_THREADS, 60, TimeUnit.SECONDS,
+				new LinkedBlockingQueue<>(), runnable -> {
+			Thread thread = new Thread(runnable, String.format("request-executor-%s", threadNumber.incrementAndGet()));
+			thread.setDaemon(true);
+			return thread;
+		});
+		platformExecutor.allowCoreThreadTimeOut(true);
+		return platformExecutor;
+	}
+
+	private static Semaphore getHostPermits(HttpUrl url) {
+		return HOST_PERMITS.computeIfAbsent(String.format("%s:%s", url.host(), url.port()), host -> new Semaphore(MAX_PER_HOST));
+	}
+
+	/**
+	 * Group of requests that belong together, e.g. all batches of one seeding run. Requests are forked into the scope
+	 * and joined at its end.
+	 */
+	public static class Scope implements AutoCloseable {
+
+		private final Semaphore permits;
+		private final List<Future<?>> forked = new ArrayList<>();
+
+		private Scope(int maxConcurrency) {
+			if (maxConcurrency < 1) {
+				throw new IllegalArgumentException("The scope needs to allow at least one request.");
+			}
+			this.permits = new Semaphore(maxConcurrency);
+		}
+
+		/**
+		 * Run the request. The scope's and the target host's permits are taken on the forking thread, thus a scope at its
+		 * limit blocks the forking instead of occupying executor threads with waiting requests. The permits are returned
+		 * once the request finished or got cancelled.
+		 *
+		 * @param target  url the request is sent to, used to apply the per-host limit
+		 * @param request the blocking request
+		 * @return the future result of the request
+		 */
+		public <T> Future<T> fork(HttpUrl target, Callable<T> request) throws InterruptedException {
+			Semaphore hostPermits = getHostPermits(target);
+			permits.acquire();
+			try {
+				hostPermits.acquire();
+			} catch (InterruptedException e) {
+				permits.release();
+				throw e;
+			}
+			FutureTask<T> task = new FutureTask<>(request) {
+				@Override
+				protected void done() {
+					hostPermits.release();
+					permits.release();
+				}
+			};
+			addForked(task);
+			try {
+				EXECUTOR.execute(task);
+			} catch (RejectedExecutionException e) {
+				task.cancel(false);
+				throw e;
+			}
+			return task;
+		}
+
+		/**
+		 * Wait for all forked requests to finish.
+		 *
+		 * @throws ExecutionException the first failure of a request, thrown after all requests finished
+		 */
+		public void join() throws InterruptedException, ExecutionException {
+			ExecutionException firstFailure = null;
+			for (Future<?> future : getForked()) {
+				try {
+					future.get();
+				} catch (ExecutionException e) {
+					firstFailure = firstFailure == null ? e : firstFailure;
+				}
+			}
+			if (firstFailure != null) {
+				throw firstFailure;
+			}
+		}
+
+		@Override
+		public void close() {
+			getForked().forEach(future -> future.cancel(true));
+		}
+
+		private synchronized void addForked(Future<?> future) {
+			forked.add(future);
+		}
+
+		private synchronized List<Future<?>> getForked() {
+			return List.copyOf(forked);
+		}
+	}
+}
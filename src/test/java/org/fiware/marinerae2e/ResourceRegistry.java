@@ -0,0 +1,297 @@
+package org.fiware.marinerae2e;
+
+import okhttp3.HttpUrl;
+import okhttp3.MediaType;
+import okhttp3.OkHttpClient;
+import okhttp3.Request;
+import okhttp3.RequestBody;
+
+import java.io.IOException;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.stream.Collectors;
+
+/**
+ * Keeps track of all resources created by a scenario: entities(in the broker and QuantumLeap) and subscriptions, each
+ * with the service path it lives in. On teardown, all of them are deleted concurrently through the RequestExecutor, with
+ * bounded retries.
+ */
+public class ResourceRegistry {
+
+	private static final MediaType JSON = MediaType.get("application/json");
+	// entities of a service path are deleted through a batch request, if more than this were created
+	private static final int BATCH_DELETE_THRESHOLD = 5;
+	private static final int BATCH_DELETE_SIZE = 100;
+	private static final Duration INITIAL_RETRY_DELAY = Duration.ofMillis(200);
+
+	private final Set<Entity> entities = ConcurrentHashMap.newKeySet();
+	private final Set<Subscription> subscriptions = ConcurrentHashMap.newKeySet();
+
+	/**
+	 * Register an entity, created in the broker and persisted by QuantumLeap.
+	 */
+	public void registerEntity(ServicePath servicePath, String id, String type) {
+		entities.add(new Entity(servicePath, id, type));
+	}
+
+	/**
+	 * Register a subscription, by the location returned from the broker.
+	 */
+	public void registerSubscription(ServicePath servicePath, String location) {
+		subscriptions.add(new Subscription(servicePath, location));
+	}
+
+	/**
+	 * Deletes all registered resources. Subscriptions are removed first, to not create new data in QuantumLeap while
+	 * cleaning up. Entities are removed from the broker and QuantumLeap afterwards.
+	 *
+	 * @return description of all deletions that failed, even after retrying
+	 */
+	public List<String> teardown(OkHttpClient brokerClient, String brokerUrl, OkHttpClient quantumLeapClient, String quantumLeapUrl,
+								 int concurrency, int retries) throws InterruptedException {
+		List<Deletion> subscriptionDeletions = new ArrayList<>();
+		for (Subscription subscription : subscriptions) {
+			Request deletion = subscription.servicePath.apply(new Request.Builder()
+							.url(String.format("%s/%s", brokerUrl, subscription.location.replaceFirst("^/", "")))
+							.method("DELETE", null))
+					.build();
+			subscriptionDeletions.add(new Deletion(brokerClient, deletion, false));
+		}
+		List<String> failures = new ArrayList<>(deleteAll(subscriptionDeletions, concurrency, retries));
+
+		List<Deletion> entityDeletions = new ArrayList<>();
+		Map<ServicePath, List<Entity>> entitiesByServicePath = entities.stream().collect(Collectors.groupingBy(e -> e.servicePath));
+		entitiesByServicePath.forEach((servicePath, servicePathEntities) -> {
+			if (servicePathEntities.size() > BATCH_DELETE_THRESHOLD) {
+				for (int from = 0; from < servicePathEntities.size(); from += BATCH_DELETE_SIZE) {
+					List<Entity> batch = servicePathEntities.subList(from, Math.min(from + BATCH_DELETE_SIZE, servicePathEntities.size()));
+					Request deletion = servicePath.apply(new Request.Builder()
+									.url(String.format("%s/v2/op/update", brokerUrl))
+									.method("POST", RequestBody.create(getBatchDeletion(batch), JSON)))
+							.build();
+					entityDeletions.add(new Deletion(brokerClient, deletion, true));
+				}
+			} else {
+				for (Entity entity : servicePathEntities) {
+					Request deletion = servicePath.apply(new Request.Builder()
+									.url(HttpUrl.get(brokerUrl).newBuilder()
+											.addPathSegment("v2")
+											.addPathSegment("entities")
+											.addPathSegment(entity.id)
+											.addQueryParameter("type", entity.type)
+											.build())
+									.method("DELETE", null))
+							.build();
+					entityDeletions.add(new Deletion(brokerClient, deletion, true));
+				}
+			}
+		});
+		for (Entity entity : entities) {
+			Request deletion = entity.servicePath.apply(new Request.Builder()
+							.url(HttpUrl.get(quantumLeapUrl).newBuilder()
+									.addPathSegment("v2")
+									.addPathSegment("entities")
+									.addPathSegment(entity.id)
+									.addQueryParameter("type", entity.type)
+									.build())
+							.method("DELETE", null))
+					.build();
+			entityDeletions.add(new Deletion(quantumLeapClient, deletion, true));
+		}
+		failures.addAll(deleteAll(entityDeletions, concurrency, retries));
+		return failures;
+	}
+
+	/**
+	 * Runs all deletions concurrently through the RequestExecutor.
+	 *
+	 * @return description of all deletions that failed
+	 */
+	private static List<String> deleteAll(List<Deletion> deletions, int concurrency, int retries) throws InterruptedException {
+		List<Future<String>> results = new ArrayList<>();
+		try (RequestExecutor.Scope scope = RequestExecutor.openScope(Math.max(concurrency, 1))) {
+			for (Deletion deletion : deletions) {
+				results.add(scope.fork(deletion.request.url(), () -> delete(deletion, retries)));
+			}
+			scope.join();
+		} catch (ExecutionException e) {
+			// failures are collected from the results
+		}
+		List<String> failures = new ArrayList<>();
+		for (Future<String> result : results) {
+			try {
+				failures.add(result.get());
+			} catch (ExecutionException e) {
+				failures.add(e.getCause().getMessage());
+			}
+		}
+		failures.removeIf(Objects::isNull);
+		return failures;
+	}
+
+	/**
+	 * Executes the deletion, retries on connection problems and server errors.
+	 *
+	 * @return null if successful, a description of the failure otherwise
+	 */
+	private static String delete(Deletion deletion, int retries) throws InterruptedException {
+		Request request = deletion.request;
+		String failure = null;
+		Duration retryDelay = INITIAL_RETRY_DELAY;
+		for (int attempt = 0; attempt <= retries; attempt++) {
+			if (attempt > 0) {
+				Thread.sleep(retryDelay.toMillis());
+				retryDelay = retryDelay.multipliedBy(2);
+			}
+			try {
+				int responseCode = HttpClients.executeForCode(deletion.httpClient, request);
+				if ((responseCode >= 200 && responseCode < 300) || (deletion.notFoundIsSuccess && responseCode == 404)) {
+					return null;
+				}
+				failure = String.format("%s %s: %s", request.method(), request.url(), responseCode);
+				if (responseCode < 500) {
+					// client errors will not change with a retry
+					return failure;
+				}
+			} catch (IOException e) {
+				failure = String.format("%s %s: %s", request.method(), request.url(), e.getMessage());
+			}
+		}
+		return failure;
+	}
+
+	private static String getBatchDeletion(List<Entity> batch) {
+		return batch.stream()
+				.map(e -> String.format("{\"id\":\"%s\",\"type\":\"%s\"}", e.id, e.type))
+				.collect(Collectors.joining(",", "{\"actionType\":\"delete\",\"entities\":[", "]}"));
+	}
+
+	/**
+	 * Fiware-Service and Fiware-ServicePath a resource lives in.
+	 */
+	public static class ServicePath {
+
+		private final String fiwareService;
+		private final String fiwareServicePath;
+
+		public ServicePath(String fiwareService, String fiwareServicePath) {
+			this.fiwareService = fiwareService;
+			this.fiwareServicePath = fiwareServicePath;
+		}
+
+		public String getFiwareService() {
+			return fiwareService;
+		}
+
+		public String getFiwareServicePath() {
+			return fiwareServicePath;
+		}
+
+		private Request.Builder apply(Request.Builder requestBuilder) {
+			return requestBuilder
+					.addHeader("Fiware-Service", fiwareService)
+					.addHeader("Fiware-ServicePath", fiwareServicePath);
+		}
+
+		@Override
+		public boolean equals(Object o) {
+			if (this == o) {
+				return true;
+			}
+			if (!(o instanceof ServicePath)) {
+				return false;
+			}
+			ServicePath that = (ServicePath) o;
+			return fiwareService.equals(that.fiwareService) && fiwareServicePath.equals(that.fiwareServicePath);
+		}
+
+		@Override
+		public int hashCode() {
+			return Objects.hash(fiwareService, fiwareServicePath);
+		}
+
+		@Override
+		public String toString() {
+			return String.format("%s%s", fiwareService, fiwareServicePath);
+		}
+	}
+
+	private static class Entity {
+
+		private final ServicePath servicePath;
+		private final String id;
+		private final String type;
+
+		private Entity(ServicePath servicePath, String id, String type) {
+			this.servicePath = servicePath;
+			this.id = id;
+			this.type = type;
+		}
+
+		@Override
+		public boolean equals(Object o) {
+			if (this == o) {
+				return true;
+			}
+			if (!(o instanceof Entity)) {
+				return false;
+			}
+			Entity entity = (Entity) o;
+			return servicePath.equals(entity.servicePath) && id.equals(entity.id) && type.equals(entity.type);
+		}
+
+		@Override
+		public int hashCode() {
+			return Objects.hash(servicePath, id, type);
+		}
+	}
+
+	private static class Subscription {
+
+		private final ServicePath servicePath;
+		private final String location;
+
+		private Subscription(ServicePath servicePath, String location) {
+			this.servicePath = servicePath;
+			this.location = location;
+		}
+
+		@Override
+		public boolean equals(Object o) {
+			if (this == o) {
+				return true;
+			}
+			if (!(o instanceof Subscription)) {
+				return false;
+			}
+			Subscription that = (Subscription) o;
+			return servicePath.equals(that.servicePath) && location.equals(that.location);
+		}
+
+		@Override
+		public int hashCode() {
+			return Objects.hash(servicePath, location);
+		}
+	}
+
+	private static class Deletion {
+
+		private final OkHttpClient httpClient;
+		private final Request request;
+		// the resource might already be gone, e.g. if QuantumLeap never received a notification
+		private final boolean notFoundIsSuccess;
+
+		private Deletion(OkHttpClient httpClient, Request request, boolean notFoundIsSuccess) {
+			this.httpClient = httpClient;
+			this.request = request;
+			this.notFoundIsSuccess = notFoundIsSuccess;
+		}
+	}
+}
@@ -0,0 +1,436 @@
+package org.fiware.marinerae2e;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import okhttp3.Call;
+import okhttp3.Callback;
+import okhttp3.HttpUrl;
+import okhttp3.MediaType;
+import okhttp3.OkHttpClient;
+import okhttp3.Request;
+import okhttp3.RequestBody;
+import okhttp3.Response;
+import org.HdrHistogram.Histogram;
+import org.HdrHistogram.Recorder;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardOpenOption;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.List;
+import java.util.Optional;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.LockSupport;
+import java.util.function.BiFunction;
+
+/**
+ * Long-running, open-loop writer of samples at a steady rate. While writing, the freshness of the data in QuantumLeap
+ * (now - newest TimeInstant of an entity) is sampled on an interval. Throughput, error rate, request latency and
+ * freshness are aggregated into windows of fixed length. Only the latest windows are kept, every finished window is
+ * appended to the snapshot file as a json line. Requests in flight are capped, samples exceeding the cap are dropped and
+ * counted as failed. Memory usage is therefore bounded, independent of the duration.
+ */
+public class SoakRunner {
+
+	private static final MediaType JSON = MediaType.get("application/json");
+	private static final ObjectMapper OBJECT_MAPPER = new ObjectMapper();
+	// highest latency/freshness to be tracked, everything above is clamped
+	private static final long MAX_TRACKABLE_MILLIS = TimeUnit.HOURS.toMillis(1);
+	// time to wait for requests still in flight at the end of the run
+	private static final Duration DRAIN_TIMEOUT = Duration.ofSeconds(30);
+
+	private final OkHttpClient brokerClient;
+	private final HttpUrl upsertUrl;
+	private final OkHttpClient quantumLeapClient;
+	private final String quantumLeapUrl;
+	private final String fiwareService;
+	private final String fiwareServicePath;
+	private final String entityType;
+	// creates the payload for the given entity id and sample time
+	private final BiFunction<String, Instant, byte[]> payloadFactory;
+
+	// written concurrently, reset with every window
+	private final Recorder latencyRecorder = new Recorder(MAX_TRACKABLE_MILLIS, 3);
+	private final Recorder freshnessRecorder = new Recorder(MAX_TRACKABLE_MILLIS, 3);
+	private final LongAdder sent = new LongAdder();
+	private final LongAdder errors = new LongAdder();
+	private final LongAdder dropped = new LongAdder();
+	private final LongAdder freshnessErrors = new LongAdder();
+	private final AtomicLong inFlight = new AtomicLong();
+
+	// guarded by the runner
+	private final Deque<WindowSnapshot> windows = new ArrayDeque<>();
+	private WindowSnapshot firstWindow;
+	private long totalSent;
+	private long totalErrors;
+	private long totalDropped;
+	private Instant windowStart;
+	private Histogram latencyInterval;
+	private Histogram freshnessInterval;
+
+	public SoakRunner(OkHttpClient brokerClient, String brokerUrl, OkHttpClient quantumLeapClient, String quantumLeapUrl,
+					  String fiwareService, String fiwareServicePath, String entityType,
+					  BiFunction<String, Instant, byte[]> payloadFactory) {
+		this.brokerClient = brokerClient;
+		this.upsertUrl = HttpUrl.get(brokerUrl).newBuilder()
+				.addPathSegment("v2")
+				.addPathSegment("entities")
+				.addEncodedQueryParameter("options", "upsert")
+				.build();
+		this.quantumLeapClient = quantumLeapClient;
+		this.quantumLeapUrl = quantumLeapUrl;
+		this.fiwareService = fiwareService;
+		this.fiwareServicePath = fiwareServicePath;
+		this.entityType = entityType;
+		this.payloadFactory = payloadFactory;
+	}
+
+	/**
+	 * Runs the soak and waits for all requests to be answered.
+	 *
+	 * @param entityIds         entities to write to, round-robin
+	 * @param rate              samples per second
+	 * @param duration          how long to write
+	 * @param freshnessInterval interval to sample the freshness at, one entity per sample
+	 * @param window            length of the aggregation windows, also the snapshot interval
+	 * @param maxInFlight       maximum number of requests in flight or queued, further samples are dropped
+	 * @param retainedWindows   number of windows to keep in memory
+	 * @param snapshotFile      file to append the finished windows to
+	 * @return the result of the soak run
+	 */
+	public SoakResult run(List<String> entityIds, double rate, Duration duration, Duration freshnessInterval, Duration window,
+						  int maxInFlight, int retainedWindows, File snapshotFile) throws InterruptedException {
+		if (entityIds.isEmpty() || rate <= 0 || maxInFlight < 1 || retainedWindows < 1) {
+			throw new IllegalArgumentException("Entities, rate, requests in flight and retained windows need to be positive.");
+		}
+		Optional.ofNullable(snapshotFile.getParentFile()).ifPresent(File::mkdirs);
+		ScheduledExecutorService scheduler = Executors.newScheduledThreadPool(2, runnable -> {
+			Thread thread = new Thread(runnable, "soak-scheduler");
+			thread.setDaemon(true);
+			return thread;
+		});
+		windowStart = Instant.now();
+		AtomicLong freshnessSample = new AtomicLong();
+		scheduler.scheduleAtFixedRate(() -> sampleFreshness(entityIds.get((int) (freshnessSample.getAndIncrement() % entityIds.size()))),
+				freshnessInterval.toMillis(), freshnessInterval.toMillis(), TimeUnit.MILLISECONDS);
+		scheduler.scheduleAtFixedRate(() -> rollWindow(retainedWindows, snapshotFile), window.toMillis(), window.toMillis(), TimeUnit.MILLISECONDS);
+
+		long start = System.nanoTime();
+		Instant startInstant = Instant.now();
+		long end = start + duration.toNanos();
+		try {
+			for (long request = 0; ; request++) {
+				long intendedStart = start + (long) (request * 1_000_000_000d / rate);
+				if (intendedStart >= end) {
+					break;
+				}
+				long waitTime = intendedStart - System.nanoTime();
+				if (waitTime > 0) {
+					LockSupport.parkNanos(waitTime);
+				}
+				if (Thread.interrupted()) {
+					throw new InterruptedException("Soak was interrupted.");
+				}
+				if (inFlight.get() >= maxInFlight) {
+					// the broker fell behind, queueing further calls in the dispatcher would grow without limit
+					dropped.increment();
+					errors.increment();
+					sent.increment();
+					continue;
+				}
+				send(entityIds.get((int) (request % entityIds.size())), startInstant.plusNanos(intendedStart - start), intendedStart);
+			}
+			long drainDeadline = System.nanoTime() + DRAIN_TIMEOUT.toNanos();
+			while (inFlight.get() > 0 && System.nanoTime() < drainDeadline) {
+				Thread.sleep(100);
+			}
+		} finally {
+			scheduler.shutdownNow();
+			scheduler.awaitTermination(DRAIN_TIMEOUT.toMillis(), TimeUnit.MILLISECONDS);
+		}
+		rollWindow(retainedWindows, snapshotFile);
+		synchronized (this) {
+			return new SoakResult(Duration.ofNanos(System.nanoTime() - start), totalSent, totalErrors, totalDropped, firstWindow,
+					new ArrayList<>(windows));
+		}
+	}
+
+	private void send(String entityId, Instant sampleTime, long intendedStart) {
+		Request upsertRequest = new Request.Builder()
+				.url(upsertUrl)
+				.addHeader("Fiware-Service", fiwareService)
+				.addHeader("Fiware-ServicePath", fiwareServicePath)
+				.method("POST", RequestBody.create(payloadFactory.apply(entityId, sampleTime), JSON))
+				.build();
+		inFlight.incrementAndGet();
+		brokerClient.newCall(upsertRequest).enqueue(new Callback() {
+			@Override
+			public void onFailure(Call call, IOException e) {
+				errors.increment();
+				record();
+			}
+
+			@Override
+			public void onResponse(Call call, Response response) {
+				try (response) {
+					if (!response.isSuccessful()) {
+						errors.increment();
+					}
+				} finally {
+					record();
+				}
+			}
+
+			private void record() {
+				// measured from the scheduled send time, to not hide stalls of the broker
+				long latency = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - intendedStart);
+				latencyRecorder.recordValue(Math.min(latency, MAX_TRACKABLE_MILLIS));
+				sent.increment();
+				inFlight.decrementAndGet();
+			}
+		});
+	}
+
+	/**
+	 * Records how old the newest sample of the entity in QuantumLeap is.
+	 */
+	private void sampleFreshness(String entityId) {
+		Request lastSampleRequest = new Request.Builder()
+				.url(HttpUrl.get(quantumLeapUrl).newBuilder()
+						.addPathSegment("v2")
+						.addPathSegment("entities")
+						.addPathSegment(entityId)
+						.addQueryParameter("type", entityType)
+						.addQueryParameter("attrs", "temperature")
+						.addQueryParameter("lastN", "1")
+						.build())
+				.addHeader("Fiware-Service", fiwareService)
+				.addHeader("Fiware-ServicePath", fiwareServicePath)
+				.build();
+		try (Response response = quantumLeapClient.newCall(lastSampleRequest).execute()) {
+			JsonNode index = response.isSuccessful() ? OBJECT_MAPPER.readTree(response.body().byteStream()).path("index").path(0) : null;
+			if (index == null || !index.isTextual()) {
+				freshnessErrors.increment();
+				return;
+			}
+			long freshness = Duration.between(PropagationLatencyTracker.parseIndex(index.asText()), Instant.now()).toMillis();
+			freshnessRecorder.recordValue(Math.min(Math.max(freshness, 0), MAX_TRACKABLE_MILLIS));
+		} catch (IOException | RuntimeException e) {
+			// e.g. QuantumLeap not reachable, counted as failed sample
+			freshnessErrors.increment();
+		}
+	}
+
+	/**
+	 * Finishes the current window, keeps it in the ring of retained windows and appends it to the snapshot file.
+	 */
+	private synchronized void rollWindow(int retainedWindows, File snapshotFile) {
+		Instant windowEnd = Instant.now();
+		latencyInterval = latencyRecorder.getIntervalHistogram(latencyInterval);
+		freshnessInterval = freshnessRecorder.getIntervalHistogram(freshnessInterval);
+		long windowSent = sent.sumThenReset();
+		long windowErrors = errors.sumThenReset();
+		long windowDropped = dropped.sumThenReset();
+		totalSent += windowSent;
+		totalErrors += windowErrors;
+		totalDropped += windowDropped;
+		Runtime runtime = Runtime.getRuntime();
+		WindowSnapshot windowSnapshot = new WindowSnapshot(windowStart, windowEnd, windowSent, windowErrors, windowDropped,
+				latencyInterval, freshnessInterval, freshnessErrors.sumThenReset(), runtime.totalMemory() - runtime.freeMemory());
+		windowStart = windowEnd;
+
+		if (firstWindow == null) {
+			firstWindow = windowSnapshot;
+		}
+		if (windows.size() == retainedWindows) {
+			windows.removeFirst();
+		}
+		windows.addLast(windowSnapshot);
+		try {
+			Files.writeString(snapshotFile.toPath(), OBJECT_MAPPER.writeValueAsString(windowSnapshot) + System.lineSeparator(),
+					StandardCharsets.UTF_8, StandardOpenOption.CREATE, StandardOpenOption.APPEND);
+		} catch (IOException e) {
+			// the window is still part of the result, a missing snapshot must not stop the soak
+		}
+	}
+
+	/**
+	 * Aggregated metrics of one window. Latency and freshness are in milliseconds.
+	 */
+	public static class WindowSnapshot {
+
+		private final Instant start;
+		private final Instant end;
+		private final long requests;
+		private final long errors;
+		// samples not sent since too many requests were in flight, included in the errors
+		private final long dropped;
+		private final double latencyP50;
+		private final double latencyP99;
+		private final long latencyMax;
+		private final long freshnessSamples;
+		private final long freshnessErrors;
+		private final double freshnessP50;
+		private final long freshnessMax;
+		private final long heapUsedBytes;
+
+		public WindowSnapshot(Instant start, Instant end, long requests, long errors, long dropped, Histogram latencies,
+							  Histogram freshness, long freshnessErrors, long heapUsedBytes) {
+			this.start = start;
+			this.end = end;
+			this.requests = requests;
+			this.errors = errors;
+			this.dropped = dropped;
+			this.latencyP50 = latencies.getValueAtPercentile(50);
+			this.latencyP99 = latencies.getValueAtPercentile(99);
+			this.latencyMax = latencies.getMaxValue();
+			this.freshnessSamples = freshness.getTotalCount();
+			this.freshnessErrors = freshnessErrors;
+			this.freshnessP50 = freshness.getValueAtPercentile(50);
+			this.freshnessMax = freshness.getMaxValue();
+			this.heapUsedBytes = heapUsedBytes;
+		}
+
+		public String getStart() {
+			return start.toString();
+		}
+
+		public String getEnd() {
+			return end.toString();
+		}
+
+		public long getRequests() {
+			return requests;
+		}
+
+		public long getErrors() {
+			return errors;
+		}
+
+		public long getDropped() {
+			return dropped;
+		}
+
+		public double getThroughput() {
+			return (requests - errors) / Math.max(Duration.between(start, end).toNanos() / 1_000_000_000d, 1e-9);
+		}
+
+		public double getErrorRate() {
+			return requests == 0 ? 0 : (double) errors / requests;
+		}
+
+		public double getLatencyP50() {
+			return latencyP50;
+		}
+
+		public double getLatencyP99() {
+			return latencyP99;
+		}
+
+		public long getLatencyMax() {
+			return latencyMax;
+		}
+
+		public long getFreshnessSamples() {
+			return freshnessSamples;
+		}
+
+		public long getFreshnessErrors() {
+			return freshnessErrors;
+		}
+
+		public double getFreshnessP50() {
+			return freshnessP50;
+		}
+
+		public long getFreshnessMax() {
+			return freshnessMax;
+		}
+
+		public long getHeapUsedBytes() {
+			return heapUsedBytes;
+		}
+
+		@Override
+		public String toString() {
+			return String.format("%s - %s: %s requests(%.1f/s successful, error rate %.4f, %s dropped), latency p50/p99/max %.0f/%.0f/%s ms, freshness p50/max %.0f/%s ms(%s samples, %s failed), heap %s MiB",
+					start, end, requests, getThroughput(), getErrorRate(), dropped, latencyP50, latencyP99, latencyMax, freshnessP50,
+					freshnessMax, freshnessSamples, freshnessErrors, heapUsedBytes / (1024 * 1024));
+		}
+	}
+
+	/**
+	 * Outcome of a soak run: totals, the first window as reference and the retained latest windows.
+	 */
+	public static class SoakResult {
+
+		private final Duration duration;
+		private final long requests;
+		private final long errors;
+		private final long dropped;
+		private final WindowSnapshot firstWindow;
+		private final List<WindowSnapshot> windows;
+
+		public SoakResult(Duration duration, long requests, long errors, long dropped, WindowSnapshot firstWindow,
+						  List<WindowSnapshot> windows) {
+			this.duration = duration;
+			this.requests = requests;
+			this.errors = errors;
+			this.dropped = dropped;
+			this.firstWindow = firstWindow;
+			this.windows = windows;
+		}
+
+		public long getRequests() {
+			return requests;
+		}
+
+		public double getErrorRate() {
+			return requests == 0 ? 0 : (double) errors / requests;
+		}
+
+		/**
+		 * The latest window that contains freshness samples. The last window is cut at the end of the run and might
+		 * not contain any.
+		 */
+		public Optional<WindowSnapshot> getLastSampledWindow() {
+			for (int i = windows.size() - 1; i >= 0; i--) {
+				if (windows.get(i).getFreshnessSamples() > 0) {
+					return Optional.of(windows.get(i));
+				}
+			}
+			return Optional.empty();
+		}
+
+		public List<WindowSnapshot> getWindows() {
+			return windows;
+		}
+
+		/**
+		 * Relative loss of successful throughput between the first and the last full window, 0 if there is only one.
+		 */
+		public double getThroughputDecay() {
+			// the last window is cut at the end of the run, therefore the one before is compared
+			if (windows.size() < 3 || firstWindow.getThroughput() == 0) {
+				return 0;
+			}
+			return 1 - windows.get(windows.size() - 2).getThroughput() / firstWindow.getThroughput();
+		}
+
+		@Override
+		public String toString() {
+			return String.format("Soaked for %s s: %s requests(%s dropped), error rate %.4f, throughput decay %.1f%%.",
+					duration.toSeconds(), requests, dropped, getErrorRate(), getThroughputDecay() * 100);
+		}
+	}
+}
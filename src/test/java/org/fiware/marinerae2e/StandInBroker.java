@@ -0,0 +1,250 @@
+package org.fiware.marinerae2e;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+import com.sun.net.httpserver.HttpExchange;
+import okhttp3.MediaType;
+import okhttp3.OkHttpClient;
+import okhttp3.Request;
+import okhttp3.RequestBody;
+import okhttp3.Response;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.regex.Pattern;
+
+import static org.fiware.marinerae2e.StandInPlatform.OBJECT_MAPPER;
+import static org.fiware.marinerae2e.StandInPlatform.error;
+import static org.fiware.marinerae2e.StandInPlatform.getQueryParameters;
+import static org.fiware.marinerae2e.StandInPlatform.getTenant;
+import static org.fiware.marinerae2e.StandInPlatform.readBody;
+import static org.fiware.marinerae2e.StandInPlatform.respond;
+
+/**
+ * Stand-in for the context broker: entities, batch operations and subscriptions of NGSIv2 with http notifications.
+ * Notifications of one subscription are sent in order, one after another, as Orion does. Notifications of different
+ * subscriptions are sent concurrently.
+ */
+class StandInBroker {
+
+	private static final MediaType JSON = MediaType.get("application/json");
+	// maximum number of notifications in flight, over all subscriptions
+	private static final int NOTIFICATION_THREADS = 8;
+
+	// entities per tenant, by id
+	private final Map<String, Map<String, ObjectNode>> entities = new ConcurrentHashMap<>();
+	// subscriptions per tenant, by id
+	private final Map<String, Map<String, JsonNode>> subscriptions = new ConcurrentHashMap<>();
+	// the last queued notification per subscription, the next one is chained to it to keep the order
+	private final Map<String, CompletableFuture<Void>> notificationQueues = new ConcurrentHashMap<>();
+	private final ExecutorService notificationExecutor = Executors.newFixedThreadPool(NOTIFICATION_THREADS, runnable -> {
+		Thread thread = new Thread(runnable, "standin-notifications");
+		thread.setDaemon(true);
+		return thread;
+	});
+	private final OkHttpClient notificationClient = new OkHttpClient();
+	private final AtomicLong notificationCount = new AtomicLong();
+	private final AtomicLong failedNotificationCount = new AtomicLong();
+
+	void handle(HttpExchange exchange) throws IOException {
+		String method = exchange.getRequestMethod();
+		String[] path = exchange.getRequestURI().getPath().replaceFirst("^/", "").split("/");
+		String tenant = getTenant(exchange);
+		if (path.length == 2 && "v2".equals(path[0]) && "entities".equals(path[1]) && "POST".equals(method)) {
+			boolean upsert = getQueryParameters(exchange).getOrDefault("options", "").contains("upsert");
+			JsonNode entity = readBody(exchange);
+			boolean existed = getEntities(tenant).containsKey(entity.path("id").asText());
+			if (existed && !upsert) {
+				respond(exchange, 422, error("Unprocessable", "Already Exists"));
+				return;
+			}
+			upsert(tenant, entity);
+			if (!existed) {
+				exchange.getResponseHeaders().set("Location", String.format("/v2/entities/%s?type=%s", entity.path("id").asText(), entity.path("type").asText()));
+			}
+			respond(exchange, existed ? 204 : 201, null);
+		} else if (path.length == 3 && "v2".equals(path[0]) && "entities".equals(path[1])) {
+			handleEntity(exchange, method, tenant, path[2]);
+		} else if (path.length == 3 && "v2".equals(path[0]) && "op".equals(path[1]) && "update".equals(path[2]) && "POST".equals(method)) {
+			handleBatch(exchange, tenant, readBody(exchange));
+		} else if (path.length == 2 && "v2".equals(path[0]) && "subscriptions".equals(path[1]) && "POST".equals(method)) {
+			String subscriptionId = UUID.randomUUID().toString().replace("-", "").substring(0, 24);
+			ObjectNode subscription = (ObjectNode) readBody(exchange);
+			subscription.put("id", subscriptionId);
+			getSubscriptions(tenant).put(subscriptionId, subscription);
+			exchange.getResponseHeaders().set("Location", String.format("/v2/subscriptions/%s", subscriptionId));
+			respond(exchange, 201, null);
+		} else if (path.length == 3 && "v2".equals(path[0]) && "subscriptions".equals(path[1]) && "DELETE".equals(method)) {
+			boolean removed = getSubscriptions(tenant).remove(path[2]) != null;
+			notificationQueues.remove(path[2]);
+			respond(exchange, removed ? 204 : 404, null);
+		} else if (path.length == 1 && "version".equals(path[0])) {
+			respond(exchange, 200, OBJECT_MAPPER.createObjectNode().put("version", "standin"));
+		} else {
+			respond(exchange, 404, error("BadRequest", String.format("%s %s is not supported by the stand-in.", method, exchange.getRequestURI())));
+		}
+	}
+
+	int getEntityCount() {
+		return entities.values().stream().mapToInt(Map::size).sum();
+	}
+
+	long getNotificationCount() {
+		return notificationCount.get();
+	}
+
+	long getFailedNotificationCount() {
+		return failedNotificationCount.get();
+	}
+
+	void shutdown() {
+		notificationExecutor.shutdownNow();
+	}
+
+	private void handleEntity(HttpExchange exchange, String method, String tenant, String entityId) throws IOException {
+		String type = getQueryParameters(exchange).get("type");
+		ObjectNode entity = getEntities(tenant).get(entityId);
+		boolean found = entity != null && (type == null || type.equals(entity.path("type").asText()));
+		if ("GET".equals(method)) {
+			respond(exchange, found ? 200 : 404, found ? entity : error("NotFound", "The requested entity has not been found."));
+		} else if ("DELETE".equals(method)) {
+			if (found) {
+				getEntities(tenant).remove(entityId);
+			}
+			respond(exchange, found ? 204 : 404, found ? null : error("NotFound", "The requested entity has not been found."));
+		} else {
+			respond(exchange, 405, error("MethodNotAllowed", method));
+		}
+	}
+
+	private void handleBatch(HttpExchange exchange, String tenant, JsonNode batch) throws IOException {
+		String actionType = batch.path("actionType").asText();
+		switch (actionType) {
+			case "append":
+			case "update":
+			case "appendStrict":
+				batch.path("entities").forEach(entity -> upsert(tenant, entity));
+				respond(exchange, 204, null);
+				return;
+			case "delete":
+				boolean allFound = true;
+				for (JsonNode entity : batch.path("entities")) {
+					allFound &= getEntities(tenant).remove(entity.path("id").asText()) != null;
+				}
+				respond(exchange, allFound ? 204 : 404, allFound ? null : error("NotFound", "Some entities were not found."));
+				return;
+			default:
+				respond(exchange, 400, error("BadRequest", String.format("Action type %s is not supported by the stand-in.", actionType)));
+		}
+	}
+
+	/**
+	 * Creates or updates the entity and notifies all matching subscriptions.
+	 */
+	private void upsert(String tenant, JsonNode update) {
+		String entityId = update.path("id").asText();
+		ObjectNode entity = getEntities(tenant).compute(entityId, (id, existing) -> {
+			ObjectNode merged = existing == null ? OBJECT_MAPPER.createObjectNode() : existing.deepCopy();
+			merged.setAll((ObjectNode) update);
+			return merged;
+		});
+		Set<String> updatedAttributes = ConcurrentHashMap.newKeySet();
+		update.fieldNames().forEachRemaining(updatedAttributes::add);
+		for (JsonNode subscription : getSubscriptions(tenant).values()) {
+			if (matches(subscription, entity, updatedAttributes)) {
+				notify(tenant, subscription, entity);
+			}
+		}
+	}
+
+	private static boolean matches(JsonNode subscription, JsonNode entity, Set<String> updatedAttributes) {
+		boolean entityMatches = false;
+		for (JsonNode subject : subscription.path("subject").path("entities")) {
+			boolean idMatches = subject.has("id") ?
+					subject.path("id").asText().equals(entity.path("id").asText()) :
+					Pattern.matches(subject.path("idPattern").asText(".*"), entity.path("id").asText());
+			boolean typeMatches = !subject.has("type") || subject.path("type").asText().equals(entity.path("type").asText());
+			entityMatches |= idMatches && typeMatches;
+		}
+		JsonNode conditionAttributes = subscription.path("subject").path("condition").path("attrs");
+		if (!entityMatches || conditionAttributes.size() == 0) {
+			return entityMatches;
+		}
+		for (JsonNode conditionAttribute : conditionAttributes) {
+			if (updatedAttributes.contains(conditionAttribute.asText())) {
+				return true;
+			}
+		}
+		return false;
+	}
+
+	private void notify(String tenant, JsonNode subscription, ObjectNode entity) {
+		JsonNode notification = subscription.path("notification");
+		JsonNode http = notification.has("httpCustom") ? notification.path("httpCustom") : notification.path("http");
+		ObjectNode notifiedEntity = OBJECT_MAPPER.createObjectNode();
+		notifiedEntity.set("id", entity.path("id"));
+		notifiedEntity.set("type", entity.path("type"));
+		List<String> notifiedAttributes = new ArrayList<>();
+		notification.path("attrs").forEach(attribute -> notifiedAttributes.add(attribute.asText()));
+		for (Iterator<Map.Entry<String, JsonNode>> fields = entity.fields(); fields.hasNext(); ) {
+			Map.Entry<String, JsonNode> field = fields.next();
+			if (!"id".equals(field.getKey()) && !"type".equals(field.getKey()) && (notifiedAttributes.isEmpty() || notifiedAttributes.contains(field.getKey()))) {
+				notifiedEntity.set(field.getKey(), field.getValue());
+			}
+		}
+		ObjectNode body = OBJECT_MAPPER.createObjectNode();
+		body.put("subscriptionId", subscription.path("id").asText());
+		body.putArray("data").add(notifiedEntity);
+
+		String[] fiwareHeaders = tenant.split("\\|", 2);
+		Request.Builder notificationRequest = new Request.Builder()
+				.url(http.path("url").asText())
+				.header("Fiware-Service", fiwareHeaders[0])
+				.header("Fiware-ServicePath", fiwareHeaders[1]);
+		http.path("headers").fields().forEachRemaining(header -> notificationRequest.header(header.getKey(), header.getValue().asText()));
+		try {
+			notificationRequest.method("POST", RequestBody.create(OBJECT_MAPPER.writeValueAsBytes(body), JSON));
+		} catch (IOException e) {
+			failedNotificationCount.incrementAndGet();
+			return;
+		}
+		Request request = notificationRequest.build();
+		// runs after the previous notification of the subscription, even if that one failed
+		notificationQueues.compute(subscription.path("id").asText(), (id, previous) ->
+				Optional.ofNullable(previous).orElse(CompletableFuture.completedFuture(null))
+						.handleAsync((result, failure) -> {
+							send(request);
+							return null;
+						}, notificationExecutor));
+	}
+
+	private void send(Request notificationRequest) {
+		notificationCount.incrementAndGet();
+		try (Response response = notificationClient.newCall(notificationRequest).execute()) {
+			if (!response.isSuccessful()) {
+				failedNotificationCount.incrementAndGet();
+			}
+		} catch (IOException e) {
+			failedNotificationCount.incrementAndGet();
+		}
+	}
+
+	private Map<String, ObjectNode> getEntities(String tenant) {
+		return entities.computeIfAbsent(tenant, t -> new ConcurrentHashMap<>());
+	}
+
+	private Map<String, JsonNode> getSubscriptions(String tenant) {
+		return subscriptions.computeIfAbsent(tenant, t -> new ConcurrentHashMap<>());
+	}
+}
@@ -0,0 +1,190 @@
+package org.fiware.marinerae2e;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.URLDecoder;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Optional;
+import java.util.Random;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * In-process stand-in for the platform: a broker and a QuantumLeap, implementing the subset of their NGSIv2 apis the
+ * steps use. The broker notifies the stand-in QuantumLeap through real http-calls, thus the whole path from data
+ * creation to the history can be exercised without any deployment. Latency(STANDIN_LATENCY) and an error
+ * rate(STANDIN_ERROR_RATE) can be injected into every request, errors are drawn from a seeded random(STANDIN_SEED) to
+ * keep runs reproducible.
+ */
+public final class StandInPlatform {
+
+	static final ObjectMapper OBJECT_MAPPER = new ObjectMapper();
+
+	static {
+		// the jdk server writes headers and body of a response separately, without TCP_NODELAY the body waits for the
+		// delayed ack of the client(~40 ms per response on loopback). Read once, before the first server is created.
+		if (System.getProperty("sun.net.httpserver.nodelay") == null) {
+			System.setProperty("sun.net.httpserver.nodelay", "true");
+		}
+	}
+
+	private static final Duration LATENCY = Optional.ofNullable(System.getenv("STANDIN_LATENCY")).map(Duration::parse).orElse(Duration.ZERO);
+	private static final double ERROR_RATE = Optional.ofNullable(System.getenv("STANDIN_ERROR_RATE")).map(Double::parseDouble).orElse(0d);
+	private static final long SEED = Optional.ofNullable(System.getenv("STANDIN_SEED")).map(Long::parseLong).orElse(42L);
+
+	private static StandInPlatform instance;
+
+	private final Random random = new Random(SEED);
+	private final AtomicLong requestCount = new AtomicLong();
+	private final AtomicLong injectedErrorCount = new AtomicLong();
+	private final ExecutorService serverExecutor = Executors.newCachedThreadPool(runnable -> {
+		Thread thread = new Thread(runnable, "standin-server");
+		thread.setDaemon(true);
+		return thread;
+	});
+	private final HttpServer brokerServer;
+	private final HttpServer quantumLeapServer;
+	private final StandInBroker broker;
+	private final StandInQuantumLeap quantumLeap;
+
+	private StandInPlatform() throws IOException {
+		quantumLeap = new StandInQuantumLeap();
+		quantumLeapServer = startServer(quantumLeap::handle);
+		broker = new StandInBroker();
+		brokerServer = startServer(broker::handle);
+		Runtime.getRuntime().addShutdownHook(new Thread(() -> {
+			brokerServer.stop(0);
+			quantumLeapServer.stop(0);
+			broker.shutdown();
+		}));
+	}
+
+	/**
+	 * Start the stand-in platform, it is shared by all scenarios of the run.
+	 */
+	public static synchronized StandInPlatform start() throws IOException {
+		if (instance == null) {
+			instance = new StandInPlatform();
+		}
+		return instance;
+	}
+
+	public String getBrokerUrl() {
+		return getUrl(brokerServer);
+	}
+
+	public String getQuantumLeapUrl() {
+		return getUrl(quantumLeapServer);
+	}
+
+	public String getMetrics() {
+		return String.format("Stand-in platform: %s requests(%s injected errors), %s notifications(%s failed), %s entities in the broker, %s rows in QuantumLeap.",
+				requestCount.get(), injectedErrorCount.get(), broker.getNotificationCount(), broker.getFailedNotificationCount(),
+				broker.getEntityCount(), quantumLeap.getRowCount());
+	}
+
+	private HttpServer startServer(HttpHandler handler) throws IOException {
+		HttpServer server = HttpServer.create(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0), 0);
+		server.createContext("/", exchange -> {
+			try {
+				requestCount.incrementAndGet();
+				if (!injectFaults(exchange)) {
+					handler.handle(exchange);
+				}
+			} catch (RuntimeException e) {
+				respond(exchange, 500, error("InternalServerError", e.getMessage()));
+			} finally {
+				exchange.close();
+			}
+		});
+		server.setExecutor(serverExecutor);
+		server.start();
+		return server;
+	}
+
+	/**
+	 * Applies the configured latency and answers with an error, if one is drawn.
+	 *
+	 * @return true if the request was answered with an injected error
+	 */
+	private boolean injectFaults(HttpExchange exchange) throws IOException {
+		if (!LATENCY.isZero()) {
+			try {
+				Thread.sleep(LATENCY.toMillis());
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+			}
+		}
+		boolean injectError;
+		synchronized (random) {
+			injectError = ERROR_RATE > 0 && random.nextDouble() < ERROR_RATE;
+		}
+		if (injectError) {
+			injectedErrorCount.incrementAndGet();
+			respond(exchange, 503, error("ServiceUnavailable", "Error injected by the stand-in platform."));
+		}
+		return injectError;
+	}
+
+	private static String getUrl(HttpServer server) {
+		return String.format("http://%s:%s", server.getAddress().getHostString(), server.getAddress().getPort());
+	}
+
+	// helpers shared by the stand-in services
+
+	static void respond(HttpExchange exchange, int code, JsonNode body) throws IOException {
+		if (body == null) {
+			exchange.sendResponseHeaders(code, -1);
+			return;
+		}
+		byte[] bytes = OBJECT_MAPPER.writeValueAsBytes(body);
+		exchange.getResponseHeaders().set("Content-Type", "application/json");
+		exchange.sendResponseHeaders(code, bytes.length);
+		try (OutputStream responseBody = exchange.getResponseBody()) {
+			responseBody.write(bytes);
+		}
+	}
+
+	static JsonNode error(String error, String description) {
+		return OBJECT_MAPPER.createObjectNode().put("error", error).put("description", description);
+	}
+
+	static JsonNode readBody(HttpExchange exchange) throws IOException {
+		return OBJECT_MAPPER.readTree(exchange.getRequestBody());
+	}
+
+	/**
+	 * Identifies the tenant of a request by its Fiware-Service and Fiware-ServicePath.
+	 */
+	static String getTenant(HttpExchange exchange) {
+		String fiwareService = Optional.ofNullable(exchange.getRequestHeaders().getFirst("Fiware-Service")).orElse("").toLowerCase();
+		String fiwareServicePath = Optional.ofNullable(exchange.getRequestHeaders().getFirst("Fiware-ServicePath")).orElse("/");
+		return String.format("%s|%s", fiwareService, fiwareServicePath);
+	}
+
+	static Map<String, String> getQueryParameters(HttpExchange exchange) {
+		Map<String, String> queryParameters = new HashMap<>();
+		String rawQuery = exchange.getRequestURI().getRawQuery();
+		if (rawQuery == null) {
+			return queryParameters;
+		}
+		for (String parameter : rawQuery.split("&")) {
+			String[] keyValue = parameter.split("=", 2);
+			queryParameters.put(URLDecoder.decode(keyValue[0], StandardCharsets.UTF_8),
+					keyValue.length > 1 ? URLDecoder.decode(keyValue[1], StandardCharsets.UTF_8) : "");
+		}
+		return queryParameters;
+	}
+}
@@ -0,0 +1,168 @@
+package org.fiware.marinerae2e;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.node.ArrayNode;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+import com.sun.net.httpserver.HttpExchange;
+
+import java.io.IOException;
+import java.time.Instant;
+import java.time.OffsetDateTime;
+import java.time.ZoneOffset;
+import java.time.format.DateTimeFormatter;
+import java.time.format.DateTimeParseException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.stream.Collectors;
+
+import static org.fiware.marinerae2e.StandInPlatform.OBJECT_MAPPER;
+import static org.fiware.marinerae2e.StandInPlatform.error;
+import static org.fiware.marinerae2e.StandInPlatform.getQueryParameters;
+import static org.fiware.marinerae2e.StandInPlatform.getTenant;
+import static org.fiware.marinerae2e.StandInPlatform.readBody;
+import static org.fiware.marinerae2e.StandInPlatform.respond;
+
+/**
+ * Stand-in for QuantumLeap: persists the notifications of the broker as rows and answers history queries of single
+ * entities.
+ */
+class StandInQuantumLeap {
+
+	// format of the TimeInstants created by the seeding step
+	private static final DateTimeFormatter FALLBACK_FORMATTER = DateTimeFormatter.ofPattern("yyyy-MM-dd'T'HH:mm:ssZ");
+
+	// rows per tenant, by entity id
+	private final Map<String, Map<String, List<Row>>> rows = new ConcurrentHashMap<>();
+	private final AtomicLong rowCount = new AtomicLong();
+
+	void handle(HttpExchange exchange) throws IOException {
+		String method = exchange.getRequestMethod();
+		String[] path = exchange.getRequestURI().getPath().replaceFirst("^/", "").split("/");
+		String tenant = getTenant(exchange);
+		if (path.length == 2 && "v2".equals(path[0]) && "notify".equals(path[1]) && "POST".equals(method)) {
+			readBody(exchange).path("data").forEach(entity -> store(tenant, entity));
+			respond(exchange, 200, OBJECT_MAPPER.createObjectNode().put("message", "Notification successfully processed"));
+		} else if (path.length == 3 && "v2".equals(path[0]) && "entities".equals(path[1]) && "GET".equals(method)) {
+			query(exchange, tenant, path[2]);
+		} else if (path.length == 3 && "v2".equals(path[0]) && "entities".equals(path[1]) && "DELETE".equals(method)) {
+			List<Row> removed = getRows(tenant).remove(path[2]);
+			if (removed != null) {
+				rowCount.addAndGet(-removed.size());
+			}
+			respond(exchange, removed != null ? 204 : 404, removed != null ? null : error("NotFound", "No records were found for such query."));
+		} else if (path.length == 1 && "version".equals(path[0])) {
+			respond(exchange, 200, OBJECT_MAPPER.createObjectNode().put("version", "standin"));
+		} else {
+			respond(exchange, 404, error("BadRequest", String.format("%s %s is not supported by the stand-in.", method, exchange.getRequestURI())));
+		}
+	}
+
+	long getRowCount() {
+		return rowCount.get();
+	}
+
+	private void store(String tenant, JsonNode entity) {
+		Row row = new Row(entity.path("type").asText(), getTimeIndex(entity), (ObjectNode) entity);
+		List<Row> entityRows = getRows(tenant).computeIfAbsent(entity.path("id").asText(), id -> new ArrayList<>());
+		synchronized (entityRows) {
+			entityRows.add(row);
+		}
+		rowCount.incrementAndGet();
+	}
+
+	private void query(HttpExchange exchange, String tenant, String entityId) throws IOException {
+		Map<String, String> queryParameters = getQueryParameters(exchange);
+		List<Row> entityRows = Optional.ofNullable(getRows(tenant).get(entityId)).orElse(List.of());
+		Optional<String> optionalType = Optional.ofNullable(queryParameters.get("type"));
+		Optional<Instant> optionalFrom = Optional.ofNullable(queryParameters.get("fromDate")).map(StandInQuantumLeap::parseTime);
+		Optional<Instant> optionalTo = Optional.ofNullable(queryParameters.get("toDate")).map(StandInQuantumLeap::parseTime);
+		List<Row> matchingRows;
+		synchronized (entityRows) {
+			matchingRows = entityRows.stream()
+					.filter(row -> optionalType.map(row.type::equals).orElse(true))
+					.filter(row -> optionalFrom.map(from -> !row.index.isBefore(from)).orElse(true))
+					.filter(row -> optionalTo.map(to -> !row.index.isAfter(to)).orElse(true))
+					.sorted(Comparator.comparing(row -> row.index))
+					.collect(Collectors.toList());
+		}
+		Optional<Integer> optionalLastN = Optional.ofNullable(queryParameters.get("lastN")).map(Integer::parseInt);
+		if (optionalLastN.isPresent() && matchingRows.size() > optionalLastN.get()) {
+			matchingRows = matchingRows.subList(matchingRows.size() - optionalLastN.get(), matchingRows.size());
+		}
+		if (matchingRows.isEmpty()) {
+			respond(exchange, 404, error("Not Found", "No records were found for such query."));
+			return;
+		}
+
+		ObjectNode latestEntity = matchingRows.get(matchingRows.size() - 1).entity;
+		ObjectNode history = OBJECT_MAPPER.createObjectNode();
+		history.put("entityId", entityId);
+		history.put("entityType", matchingRows.get(0).type);
+		ArrayNode index = history.putArray("index");
+		matchingRows.forEach(row -> index.add(DateTimeFormatter.ISO_OFFSET_DATE_TIME.format(row.index.atOffset(ZoneOffset.UTC))));
+		ArrayNode attributes = history.putArray("attributes");
+		List<String> attributeNames = Optional.ofNullable(queryParameters.get("attrs"))
+				.map(attrs -> Arrays.asList(attrs.split(",")))
+				.orElseGet(() -> getAttributeNames(latestEntity));
+		for (String attributeName : attributeNames) {
+			ObjectNode attribute = attributes.addObject();
+			attribute.put("attrName", attributeName);
+			ArrayNode values = attribute.putArray("values");
+			matchingRows.forEach(row -> values.add(row.entity.path(attributeName).path("value")));
+		}
+		respond(exchange, 200, history);
+	}
+
+	private Map<String, List<Row>> getRows(String tenant) {
+		return rows.computeIfAbsent(tenant, t -> new ConcurrentHashMap<>());
+	}
+
+	private static List<String> getAttributeNames(ObjectNode entity) {
+		List<String> attributeNames = new ArrayList<>();
+		entity.fieldNames().forEachRemaining(attributeNames::add);
+		attributeNames.removeAll(List.of("id", "type"));
+		return attributeNames;
+	}
+
+	/**
+	 * As QuantumLeap, the time index is taken from the TimeInstant metadata of the attributes, the TimeInstant
+	 * attribute or the time of arrival - in that order.
+	 */
+	private static Instant getTimeIndex(JsonNode entity) {
+		for (JsonNode attribute : entity) {
+			JsonNode timeInstant = attribute.path("metadata").path("TimeInstant").path("value");
+			if (timeInstant.isTextual()) {
+				return parseTime(timeInstant.asText());
+			}
+		}
+		JsonNode timeInstant = entity.path("TimeInstant").path("value");
+		return timeInstant.isTextual() ? parseTime(timeInstant.asText()) : Instant.now();
+	}
+
+	private static Instant parseTime(String time) {
+		try {
+			return OffsetDateTime.parse(time).toInstant();
+		} catch (DateTimeParseException e) {
+			return OffsetDateTime.parse(time, FALLBACK_FORMATTER).toInstant();
+		}
+	}
+
+	private static class Row {
+
+		private final String type;
+		private final Instant index;
+		private final ObjectNode entity;
+
+		private Row(String type, Instant index, ObjectNode entity) {
+			this.type = type;
+			this.index = index;
+			this.entity = entity;
+		}
+	}
+}
@@ -1,27 +1,27 @@
 package org.fiware.marinerae2e;
 
+import com.fasterxml.jackson.databind.ObjectMapper;
 import io.cucumber.java.After;
+import io.cucumber.java.AfterAll;
 import io.cucumber.java.Before;
+import io.cucumber.java.Scenario;
 import io.cucumber.java.en.Given;
 import io.cucumber.java.en.Then;
 import io.cucumber.java.en.When;
+import okhttp3.Dispatcher;
 import okhttp3.HttpUrl;
 import okhttp3.MediaType;
 import okhttp3.OkHttpClient;
 import okhttp3.Request;
 import okhttp3.RequestBody;
 import okhttp3.Response;
-import org.keycloak.admin.client.KeycloakBuilder;
-import org.keycloak.admin.client.token.TokenManager;
-import org.keycloak.representations.AccessTokenResponse;
+import org.fiware.marinerae2e.HttpClients.Endpoint;
 import org.openqa.selenium.By;
 import org.openqa.selenium.WebDriver;
 import org.openqa.selenium.WebElement;
-import org.openqa.selenium.chrome.ChromeOptions;
-import org.openqa.selenium.remote.RemoteWebDriver;
 import org.openqa.selenium.support.ui.ExpectedConditions;
-import org.openqa.selenium.support.ui.WebDriverWait;
 
+import java.io.File;
 import java.io.IOException;
 import java.net.MalformedURLException;
 import java.net.URL;
@@ -31,8 +31,15 @@ import java.time.Instant;
 import java.time.ZoneId;
 import java.time.format.DateTimeFormatter;
 import java.time.temporal.ChronoUnit;
+import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.List;
+import java.util.Map;
 import java.util.Optional;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutionException;
+import java.util.stream.Collectors;
 
 import static org.awaitility.Awaitility.await;
 import static org.junit.jupiter.api.Assertions.assertEquals;
@@ -41,6 +48,12 @@ import static org.junit.jupiter.api.Assertions.fail;
 
 public class StepDefinitions {
 
+	// payload templates, compiled once for the whole suite
+	private static final EntityTemplate AIR_QUALITY_TEMPLATE = EntityTemplate.compile("AirQualityObserved", "temperature", "humidity", "co", "no2");
+	private static final SubscriptionTemplate SUBSCRIPTION_TEMPLATE = SubscriptionTemplate.compile("AQ - Orion to QuantumLeap subscription",
+			"AirQualityObserved", List.of("temperature"), List.of("CO", "NO2", "humidity", "temperature"),
+			List.of("dateCreated", "dateModified", "TimeInstant"));
+
 	public String fiwareService = "AirQuality";
 	public String fiwareServicePath = "/alcantarilla";
 
@@ -52,6 +65,12 @@ public class StepDefinitions {
 	// Historic data and current data
 	private String historicDataGridPosition;
 	private String currentDataGridPosition;
+	// the position of the historic and current data panels in the dashboard(grid order, starting top-left), used by the api verification
+	private int historicDataPanelPosition;
+	private int currentDataPanelPosition;
+
+	// how to verify the data shown in grafana: "ui" inspects the rendered dashboard, "api" runs its queries through the grafana-api
+	private String verificationMode;
 
 	// url of the selenium instance to be used
 	private String remoteDriverUrl;
@@ -59,6 +78,8 @@ public class StepDefinitions {
 	private String grafanaUrl;
 	// url of the context broker to be used for data creation
 	private String brokerUrl;
+	// url of the context broker, bypassing a pep-proxy. Used for the cleanup
+	private String directBrokerUrl;
 	// url of quantum leap to send the notifications to
 	private String quantumLeapUrl;
 	// username of the grafana(admin)-user to use
@@ -74,29 +95,198 @@ public class StepDefinitions {
 	private String keycloakURL;
 	private String keycloakRealm;
 
-	// holds the test subscription's location for later cleanup
-	private Optional<String> subscriptionLocation = Optional.empty();
+	// holds all resources created by the scenario for later cleanup
+	private ResourceRegistry resourceRegistry;
+	// number of deletions to run concurrently on cleanup
+	private int cleanupConcurrency;
+	// number of retries for a failed deletion on cleanup
+	private int cleanupRetries;
+
+	// number of entities to be sent in one batch request when seeding data
+	private int seedingBatchSize;
+	// number of batch requests to be in flight at the same time when seeding data
+	private int seedingMaxInFlight;
+
+	// LOAD GENERATION
+	// number of entities to send samples for
+	private int loadEntities;
+	// number of samples to be sent per entity
+	private int loadSamples;
+	// requests per second to be reached after the ramp-up
+	private double loadRate;
+	// duration in which the rate is increased up to the target rate
+	private Duration loadRampUp;
+	// maximum number of concurrent requests towards the broker
+	private int loadMaxConnections;
+
+	// PROPAGATION LATENCY
+	// number of tagged samples to be sent for the latency measurement
+	private int latencySamples;
+	// time between two tagged samples
+	private Duration latencySampleInterval;
+	// maximum time to wait for all samples to show up at QuantumLeap
+	private Duration latencyTimeout;
+	// the p99 propagation latency has to stay below
+	private Duration latencySlo;
+	// file to write the latency report to
+	private String latencyReportFile;
+	// tracks the samples sent for the latency measurement
+	private PropagationLatencyTracker propagationLatencyTracker;
+	// completes once all tagged samples are sent
+	private CompletableFuture<Void> latencySampleSending;
+	// port to receive notifications at, 0 for an ephemeral one
+	private int notificationSinkPort;
+	// url the broker reaches the notification sink at, the local host's address is used if not set
+	private String notificationSinkUrl;
+	// receives the notifications in addition to QuantumLeap, if subscribed
+	private NotificationSink notificationSink;
+
+	// tenants(Fiware-Service and Fiware-ServicePath combinations) to fan out to in the multi-tenant scenario
+	private List<ResourceRegistry.ServicePath> tenants;
+	// number of samples to be sent per tenant
+	private int tenantSamples;
+	// pause between two samples of a tenant
+	private Duration tenantSampleInterval;
+	// maximum number of tenants served at the same time
+	private int tenantConcurrency;
+	// results of the fan-out, one per tenant
+	private List<TenantFanOut.TenantResult> tenantResults;
+
+	// how long to write in the soak scenario
+	private Duration soakDuration;
+	// samples per second to be written while soaking
+	private double soakRate;
+	// number of entities the samples are distributed over
+	private int soakEntities;
+	// interval to sample the freshness of the data in QuantumLeap at
+	private Duration soakFreshnessInterval;
+	// length of the aggregation windows, every finished window is written as snapshot
+	private Duration soakWindow;
+	// number of windows kept in memory
+	private int soakRetainedWindows;
+	// maximum number of soak requests in flight, samples above are dropped and counted as errors
+	private int soakMaxInFlight;
+	// file the window snapshots are appended to(json lines)
+	private String soakSnapshotFile;
+	// maximum share of failed requests over the whole soak
+	private double soakMaxErrorRate;
+	// maximum age of the newest sample in QuantumLeap during the last window
+	private Duration soakMaxFreshness;
+	// maximum relative loss of throughput between the first and the last window
+	private double soakMaxThroughputDecay;
+	// result of the soak run
+	private SoakRunner.SoakResult soakResult;
+
+	// number of entities to backfill a history for
+	private int historyEntities;
+	// time covered by the backfilled history
+	private Duration historySpan;
+	// time between two backfilled samples of an entity
+	private Duration historyStep;
+	// end of the backfilled history, a fixed end allows to resume a backfill
+	private Instant historyEnd;
+	// samples per notification sent to QuantumLeap
+	private int historyBatchSize;
+	// maximum number of notifications sent at the same time
+	private int historyMaxInFlight;
+	// file to track the progress of the backfill in
+	private String historyCheckpointFile;
+	// keep the backfilled history after the scenario, to reuse it in the next run
+	private boolean historyKeep;
+	// time ranges to query, all ending at the end of the history
+	private List<Duration> historyQueryRanges;
+	// aggregations to query, in the form method/period or none
+	private List<String> historyQueryAggregations;
+	// maximum number of rows requested from QuantumLeap
+	private int historyQueryLimit;
+	// number of times every query is executed
+	private int historyQueryRepetitions;
+	// dashboard whose panels are timed, none if empty
+	private String historyQueryDashboardName;
+	// file to write the latency-vs-data-size report to
+	private String historyQueryReportFile;
+	// maximum median duration of any history query
+	private Duration historyQueryBudget;
+	// timings of the history queries
+	private HistoryQueryTimer historyQueryTimer;
 
 	// Air Quality Application variables
 	private String airQualityDataMonitorDashboardName;
 	private String airQualityHome;
 
-	// instance of the webdriver for contacting selenium
-	private static WebDriver webDriver;
-
-	private Optional<TokenManager> optionalTokenManager = Optional.empty();
+	// instance of the webdriver for contacting selenium, taken from the pool for the current scenario
+	private WebDriver webDriver;
+	// all waits on the browser go through it
+	private PageReadiness pageReadiness;
+	// maximum time to wait for a page to get ready
+	private Duration readinessTimeout;
+	// time without network activity after which a dashboard is considered loaded
+	private Duration networkQuietPeriod;
+	// captures the browser-side timings of the visited dashboards
+	private DashboardPerformance dashboardPerformance;
+	// default time budget for a dashboard to render all its panels
+	private Duration dashboardRenderBudget;
+	// render budgets of single dashboards, by uid
+	private Map<String, Duration> dashboardRenderBudgets;
+	// time budget for the slowest query of a panel
+	private Duration dashboardQueryBudget;
+	// budget for the js heap used by the dashboards, in MB
+	private long dashboardHeapBudgetMb;
+
+	// the currently running scenario, used for reporting
+	private Scenario scenario;
+
+	// provides the tokens in the secured flow
+	private Optional<TokenProvider> optionalTokenProvider = Optional.empty();
+	// the in-process platform, if the scenario runs against it
+	private Optional<StandInPlatform> optionalStandInPlatform = Optional.empty();
+	// clients to be used for the broker and quantumleap, authorized in the secured flow
+	private OkHttpClient brokerClient;
+	private OkHttpClient quantumLeapClient;
 
 	/**
-	 * Reads the env and creates the connection to selenium.
+	 * Reads the env and gets a connection to selenium from the pool.
 	 */
 	@Before
-	public void setUp() throws MalformedURLException {
+	public void setUp(Scenario scenario) throws MalformedURLException, InterruptedException {
 
+		this.scenario = scenario;
 		readEnv();
+		isolateWorker();
+		resourceRegistry = new ResourceRegistry();
+		brokerClient = HttpClients.get(Endpoint.BROKER);
+		quantumLeapClient = HttpClients.get(Endpoint.QUANTUM_LEAP);
+
+		// only scenarios tagged with @browser get a selenium session, all others would block one without using it
+		if (!scenario.getSourceTagNames().contains("@browser")) {
+			return;
+		}
+		webDriver = WebDriverPool.acquire(remoteDriverUrl);
+		pageReadiness = new PageReadiness(webDriver, readinessTimeout, networkQuietPeriod);
+		dashboardPerformance = new DashboardPerformance(webDriver, dashboardUid -> {
+			try {
+				return new GrafanaApiVerifier(HttpClients.get(Endpoint.GRAFANA), grafanaUrl, grafanaUser, grafanaPassword).getPanelTitles(dashboardUid);
+			} catch (IOException e) {
+				// panels are reported by id
+				return Map.of();
+			}
+		});
+	}
 
-		ChromeOptions chromeOptions = new ChromeOptions();
-		webDriver = new RemoteWebDriver(new URL(remoteDriverUrl), chromeOptions);
-		webDriver.manage().timeouts().implicitlyWait(Duration.of(5, ChronoUnit.SECONDS));
+	/**
+	 * When running in parallel, every worker uses its own entity and service path, so that scenarios running at the
+	 * same time do not interfere in the broker and QuantumLeap.
+	 */
+	private void isolateWorker() {
+		if (!ParallelExecution.isEnabled()) {
+			return;
+		}
+		String workerId = ParallelExecution.getWorkerId();
+		testEntityId = String.format("%s-%s", testEntityId, workerId);
+		fiwareServicePath = String.format("%s/%s", fiwareServicePath, workerId);
+		tenants = tenants.stream()
+				.map(tenant -> new ResourceRegistry.ServicePath(tenant.getFiwareService(), String.format("%s/%s", tenant.getFiwareServicePath(), workerId)))
+				.collect(Collectors.toList());
 	}
 
 	/**
@@ -106,6 +296,7 @@ public class StepDefinitions {
 		remoteDriverUrl = Optional.ofNullable(System.getenv("REMOTE_DRIVER_URL")).orElse("http://localhost:4444");
 		grafanaUrl = Optional.ofNullable(System.getenv("GRAFANA_URL")).orElse("http://localhost:3000");
 		brokerUrl = Optional.ofNullable(System.getenv("BROKER_URL")).orElse("http://localhost:1026");
+		directBrokerUrl = brokerUrl;
 		quantumLeapUrl = Optional.ofNullable(System.getenv("QUANTUM_LEAP_URL")).orElse("http://quantumleap-quantumleap:8668");
 
 		testEntityId = Optional.ofNullable(System.getenv("TEST_ENTITY_ID")).orElse("test-air-quality");
@@ -113,15 +304,88 @@ public class StepDefinitions {
 
 		historicDataGridPosition = Optional.ofNullable(System.getenv("HISTORIC_DATA_GRID_POSITION")).orElse("1");
 		currentDataGridPosition = Optional.ofNullable(System.getenv("CURRENT_DATA_GRID_POSITION")).orElse("2");
+		historicDataPanelPosition = Optional.ofNullable(System.getenv("HISTORIC_DATA_PANEL_POSITION")).map(Integer::parseInt).orElse(1);
+		currentDataPanelPosition = Optional.ofNullable(System.getenv("CURRENT_DATA_PANEL_POSITION")).map(Integer::parseInt).orElse(2);
 
 		grafanaUser = Optional.ofNullable(System.getenv("GRAFANA_USERNAME")).orElse("user");
 		grafanaPassword = Optional.ofNullable(System.getenv("GRAFANA_PASSWORD")).orElse("password");
+		verificationMode = Optional.ofNullable(System.getenv("VERIFICATION_MODE")).orElse("ui");
+		readinessTimeout = Optional.ofNullable(System.getenv("READINESS_TIMEOUT")).map(Duration::parse).orElse(Duration.ofSeconds(15));
+		networkQuietPeriod = Optional.ofNullable(System.getenv("NETWORK_QUIET_PERIOD")).map(Duration::parse).orElse(Duration.ofMillis(500));
+		dashboardRenderBudget = Optional.ofNullable(System.getenv("DASHBOARD_RENDER_BUDGET")).map(Duration::parse).orElse(Duration.ofSeconds(10));
+		dashboardRenderBudgets = splitList(Optional.ofNullable(System.getenv("DASHBOARD_RENDER_BUDGETS")).orElse("")).stream()
+				.map(budget -> budget.split("=", 2))
+				.collect(Collectors.toMap(budget -> budget[0].trim(), budget -> Duration.parse(budget[1].trim())));
+		dashboardQueryBudget = Optional.ofNullable(System.getenv("DASHBOARD_QUERY_BUDGET")).map(Duration::parse).orElse(Duration.ofSeconds(5));
+		dashboardHeapBudgetMb = Optional.ofNullable(System.getenv("DASHBOARD_HEAP_BUDGET_MB")).map(Long::parseLong).orElse(512L);
 
 		fiwareService = Optional.ofNullable(System.getenv("FIWARE_SERVICE")).orElse("AirQuality");
 		fiwareServicePath = Optional.ofNullable(System.getenv("FIWARE_SERVICE_PATH")).orElse("/alcantarilla");
 
 		airQualityDataMonitorDashboardName = Optional.ofNullable(System.getenv("AIR_QUALITY_DATA_MONITOR_DASHBOARD_NAME")).orElse("air-quality-data-monitor");
 		airQualityHome = Optional.ofNullable(System.getenv("AIR_QUALITY_HOME")).orElse("aqapp-home");
+
+		seedingBatchSize = Optional.ofNullable(System.getenv("SEEDING_BATCH_SIZE")).map(Integer::parseInt).orElse(50);
+		seedingMaxInFlight = Optional.ofNullable(System.getenv("SEEDING_MAX_IN_FLIGHT")).map(Integer::parseInt).orElse(4);
+
+		cleanupConcurrency = Optional.ofNullable(System.getenv("CLEANUP_CONCURRENCY")).map(Integer::parseInt).orElse(8);
+		cleanupRetries = Optional.ofNullable(System.getenv("CLEANUP_RETRIES")).map(Integer::parseInt).orElse(3);
+
+		loadEntities = Optional.ofNullable(System.getenv("LOAD_ENTITIES")).map(Integer::parseInt).orElse(10);
+		loadSamples = Optional.ofNullable(System.getenv("LOAD_SAMPLES")).map(Integer::parseInt).orElse(10);
+		loadRate = Optional.ofNullable(System.getenv("LOAD_RATE")).map(Double::parseDouble).orElse(20d);
+		loadRampUp = Optional.ofNullable(System.getenv("LOAD_RAMP_UP")).map(Duration::parse).orElse(Duration.ofSeconds(2));
+		loadMaxConnections = Optional.ofNullable(System.getenv("LOAD_MAX_CONNECTIONS")).map(Integer::parseInt).orElse(64);
+
+		latencySamples = Optional.ofNullable(System.getenv("LATENCY_SAMPLES")).map(Integer::parseInt).orElse(20);
+		latencySampleInterval = Optional.ofNullable(System.getenv("LATENCY_SAMPLE_INTERVAL")).map(Duration::parse).orElse(Duration.ofMillis(500));
+		latencyTimeout = Optional.ofNullable(System.getenv("LATENCY_TIMEOUT")).map(Duration::parse).orElse(Duration.ofSeconds(60));
+		latencySlo = Optional.ofNullable(System.getenv("LATENCY_SLO")).map(Duration::parse).orElse(Duration.ofSeconds(10));
+		latencyReportFile = Optional.ofNullable(System.getenv("LATENCY_REPORT_FILE")).orElse("target/propagation-latency.json");
+
+		notificationSinkPort = Optional.ofNullable(System.getenv("NOTIFICATION_SINK_PORT")).map(Integer::parseInt).orElse(0);
+		notificationSinkUrl = System.getenv("NOTIFICATION_SINK_URL");
+
+		List<String> tenantServices = Optional.ofNullable(System.getenv("TENANT_SERVICES")).map(StepDefinitions::splitList).orElse(List.of("tenant_a", "tenant_b", "tenant_c"));
+		List<String> tenantServicePaths = Optional.ofNullable(System.getenv("TENANT_SERVICE_PATHS")).map(StepDefinitions::splitList).orElse(List.of("/alcantarilla", "/murcia"));
+		tenants = new ArrayList<>();
+		for (String tenantService : tenantServices) {
+			for (String tenantServicePath : tenantServicePaths) {
+				tenants.add(new ResourceRegistry.ServicePath(tenantService, tenantServicePath));
+			}
+		}
+		tenantSamples = Optional.ofNullable(System.getenv("TENANT_SAMPLES")).map(Integer::parseInt).orElse(10);
+		tenantSampleInterval = Optional.ofNullable(System.getenv("TENANT_SAMPLE_INTERVAL")).map(Duration::parse).orElse(Duration.ZERO);
+		tenantConcurrency = Optional.ofNullable(System.getenv("TENANT_CONCURRENCY")).map(Integer::parseInt).orElse(8);
+
+		soakDuration = Optional.ofNullable(System.getenv("SOAK_DURATION")).map(Duration::parse).orElse(Duration.ofHours(1));
+		soakRate = Optional.ofNullable(System.getenv("SOAK_RATE")).map(Double::parseDouble).orElse(5d);
+		soakEntities = Optional.ofNullable(System.getenv("SOAK_ENTITIES")).map(Integer::parseInt).orElse(10);
+		soakFreshnessInterval = Optional.ofNullable(System.getenv("SOAK_FRESHNESS_INTERVAL")).map(Duration::parse).orElse(Duration.ofSeconds(10));
+		soakWindow = Optional.ofNullable(System.getenv("SOAK_WINDOW")).map(Duration::parse).orElse(Duration.ofMinutes(1));
+		soakRetainedWindows = Optional.ofNullable(System.getenv("SOAK_RETAINED_WINDOWS")).map(Integer::parseInt).orElse(60);
+		soakMaxInFlight = Optional.ofNullable(System.getenv("SOAK_MAX_IN_FLIGHT")).map(Integer::parseInt).orElse(256);
+		soakSnapshotFile = Optional.ofNullable(System.getenv("SOAK_SNAPSHOT_FILE")).orElse("target/soak/soak-windows.jsonl");
+		soakMaxErrorRate = Optional.ofNullable(System.getenv("SOAK_MAX_ERROR_RATE")).map(Double::parseDouble).orElse(0.01);
+		soakMaxFreshness = Optional.ofNullable(System.getenv("SOAK_MAX_FRESHNESS")).map(Duration::parse).orElse(Duration.ofMinutes(1));
+		soakMaxThroughputDecay = Optional.ofNullable(System.getenv("SOAK_MAX_THROUGHPUT_DECAY")).map(Double::parseDouble).orElse(0.2);
+		historyEntities = Optional.ofNullable(System.getenv("HISTORY_ENTITIES")).map(Integer::parseInt).orElse(10);
+		historySpan = Optional.ofNullable(System.getenv("HISTORY_SPAN")).map(Duration::parse).orElse(Duration.ofDays(365));
+		historyStep = Optional.ofNullable(System.getenv("HISTORY_STEP")).map(Duration::parse).orElse(Duration.ofMinutes(5));
+		historyEnd = Optional.ofNullable(System.getenv("HISTORY_END")).map(Instant::parse).orElse(Instant.now().truncatedTo(ChronoUnit.DAYS));
+		historyBatchSize = Optional.ofNullable(System.getenv("HISTORY_BATCH_SIZE")).map(Integer::parseInt).orElse(1000);
+		historyMaxInFlight = Optional.ofNullable(System.getenv("HISTORY_MAX_IN_FLIGHT")).map(Integer::parseInt).orElse(8);
+		historyCheckpointFile = Optional.ofNullable(System.getenv("HISTORY_CHECKPOINT_FILE")).orElse("target/history/checkpoint.json");
+		historyKeep = Optional.ofNullable(System.getenv("HISTORY_KEEP")).map(Boolean::parseBoolean).orElse(false);
+		historyQueryRanges = splitList(Optional.ofNullable(System.getenv("HISTORY_QUERY_RANGES")).orElse("PT1H,P1D,P7D,P30D,P365D")).stream()
+				.map(Duration::parse)
+				.collect(Collectors.toList());
+		historyQueryAggregations = splitList(Optional.ofNullable(System.getenv("HISTORY_QUERY_AGGREGATIONS")).orElse("none,avg/hour,avg/day"));
+		historyQueryLimit = Optional.ofNullable(System.getenv("HISTORY_QUERY_LIMIT")).map(Integer::parseInt).orElse(10000);
+		historyQueryRepetitions = Optional.ofNullable(System.getenv("HISTORY_QUERY_REPETITIONS")).map(Integer::parseInt).orElse(5);
+		historyQueryDashboardName = Optional.ofNullable(System.getenv("HISTORY_QUERY_DASHBOARD_NAME")).orElse(datasourceCheckerDashboardName);
+		historyQueryReportFile = Optional.ofNullable(System.getenv("HISTORY_QUERY_REPORT_FILE")).orElse("target/history/query-report.json");
+		historyQueryBudget = Optional.ofNullable(System.getenv("HISTORY_QUERY_BUDGET")).map(Duration::parse).orElse(Duration.ofSeconds(5));
 	}
 
 	@Given("The keycloak connection is setup.")
@@ -133,7 +397,20 @@ public class StepDefinitions {
 		keycloakURL = Optional.ofNullable(System.getenv("KEYCLOAK_URL")).orElseThrow(() -> new RuntimeException("URL of keycloak is required for the pep-flow."));
 		keycloakRealm = Optional.ofNullable(System.getenv("KEYCLOAK_REALM")).orElseThrow(() -> new RuntimeException("A realm is required for the pep-flow."));
 		brokerUrl = Optional.ofNullable(System.getenv("PEP_URL")).orElseThrow(() -> new RuntimeException("A url to the pep-proxy needs to be provided."));
-		optionalTokenManager = getOptionalTokenManager();
+		TokenProvider tokenProvider = TokenProvider.getProvider(keycloakURL, keycloakRealm, keycloakClientId, keycloakClientSecret, keycloakUsername, keycloakPassword);
+		optionalTokenProvider = Optional.of(tokenProvider);
+		// the clients share pool and dispatcher with the unauthorized ones
+		brokerClient = brokerClient.newBuilder().addInterceptor(tokenProvider.asInterceptor()).build();
+		quantumLeapClient = quantumLeapClient.newBuilder().addInterceptor(tokenProvider.asInterceptor()).build();
+	}
+
+	@Given("The stand-in platform is running.")
+	public void start_standin_platform() throws IOException {
+		StandInPlatform standInPlatform = StandInPlatform.start();
+		optionalStandInPlatform = Optional.of(standInPlatform);
+		brokerUrl = standInPlatform.getBrokerUrl();
+		directBrokerUrl = brokerUrl;
+		quantumLeapUrl = standInPlatform.getQuantumLeapUrl();
 	}
 
 	@When("A user opens Grafana.")
@@ -144,196 +421,451 @@ public class StepDefinitions {
 
 	@Given("The subscription between Orion-LD and QuantumLeap is created.")
 	public void create_subscription() throws IOException {
-		OkHttpClient brokerClient = new OkHttpClient();
+		subscribe(String.format("%s/v2/notify", quantumLeapUrl), getServicePath());
+	}
 
-		RequestBody subscriptionBody = RequestBody.create(getSubscriptionString(quantumLeapUrl, fiwareService, fiwareServicePath), MediaType.get("application/json"));
+	@Given("A notification sink is subscribed to AirQuality data.")
+	public void subscribe_notification_sink() throws IOException {
+		notificationSink = NotificationSink.start(notificationSinkPort, notificationSinkUrl);
+		subscribe(notificationSink.getNotificationUrl(), getServicePath());
+	}
+
+	/**
+	 * Subscribes the given url to the AirQuality data and registers the subscription for cleanup.
+	 */
+	private void subscribe(String notificationUrl, ResourceRegistry.ServicePath servicePath) throws IOException {
+		RequestBody subscriptionBody = RequestBody.create(SUBSCRIPTION_TEMPLATE.toString(notificationUrl, servicePath.getFiwareService(), servicePath.getFiwareServicePath()), MediaType.get("application/json"));
 
 		Request subscriptionCreationRequest = new Request.Builder()
 				.url(String.format("%s/v2/subscriptions", brokerUrl))
-				.addHeader("Fiware-Service", fiwareService)
-				.addHeader("Fiware-ServicePath", fiwareServicePath)
-				.addHeader("Authorization", String.format("bearer %s", optionalTokenManager.map(TokenManager::getAccessToken).map(AccessTokenResponse::getToken).orElse("noToken")))
+				.addHeader("Fiware-Service", servicePath.getFiwareService())
+				.addHeader("Fiware-ServicePath", servicePath.getFiwareServicePath())
 				.method("POST", subscriptionBody)
 				.build();
-		Response response = brokerClient.newCall(subscriptionCreationRequest).execute();
-		assertTrue(response.code() >= 200 && response.code() < 300, "We expect any kind of successful response.");
+		String location = HttpClients.execute(brokerClient, subscriptionCreationRequest, response -> {
+			assertTrue(response.code() >= 200 && response.code() < 300, "We expect any kind of successful response.");
+			return response.header("Location");
+		});
 		// store for better cleanup
-		subscriptionLocation = Optional.of(response.header("Location"));
+		resourceRegistry.registerSubscription(servicePath, location);
+	}
+
+	@Given("Subscriptions between Orion-LD and QuantumLeap are created for all tenants.")
+	public void create_tenant_subscriptions() throws InterruptedException {
+		try (RequestExecutor.Scope scope = RequestExecutor.openScope(tenantConcurrency)) {
+			for (ResourceRegistry.ServicePath tenant : tenants) {
+				scope.fork(HttpUrl.get(brokerUrl), () -> {
+					subscribe(String.format("%s/v2/notify", quantumLeapUrl), tenant);
+					return null;
+				});
+			}
+			scope.join();
+		} catch (ExecutionException e) {
+			fail(String.format("Not all tenants could be subscribed: %s", e.getCause().getMessage()));
+		}
 	}
 
-	private Optional<TokenManager> getOptionalTokenManager() {
+	@When("AirQuality samples are created for all tenants concurrently.")
+	public void push_tenant_samples_to_orion() throws InterruptedException {
+		for (ResourceRegistry.ServicePath tenant : tenants) {
+			resourceRegistry.registerEntity(tenant, testEntityId, "AirQualityObserved");
+		}
+		// the tenant's marker is sent as temperature, to recognize the tenant's data in QuantumLeap
+		TenantFanOut tenantFanOut = new TenantFanOut(brokerClient, brokerUrl, quantumLeapClient, quantumLeapUrl, testEntityId, "AirQualityObserved",
+				(sendTime, marker) -> AIR_QUALITY_TEMPLATE.toBytes(testEntityId, DateTimeFormatter.ISO_INSTANT.format(sendTime), marker, Math.random() * 20, Math.random(), Math.random()));
+		tenantResults = tenantFanOut.run(tenants, tenantSamples, tenantSampleInterval, tenantConcurrency, latencyTimeout);
+		tenantResults.forEach(tenantResult -> scenario.log(tenantResult.toString()));
+	}
 
-		return Optional.of(KeycloakBuilder.builder()
-				.username(keycloakUsername)
-				.password(keycloakPassword)
-				.clientSecret(keycloakClientSecret)
-				.clientId(keycloakClientId)
-				.grantType("password")
-				.realm(keycloakRealm)
-				.serverUrl(keycloakURL)
-				.build()
-				.tokenManager());
+	@Then("Every tenant should only see its own data in QuantumLeap.")
+	public void verify_tenant_isolation() {
+		for (TenantFanOut.TenantResult tenantResult : tenantResults) {
+			assertEquals(0, tenantResult.getErrorCount(), String.format("All samples of %s should be accepted by the broker.", tenantResult.getTenant()));
+			assertEquals(0, tenantResult.getLatencyReport().getMissing(), String.format("All samples of %s should arrive at QuantumLeap.", tenantResult.getTenant()));
+			assertEquals(0, tenantResult.getForeignSamples(), String.format("The history of %s should not contain data of other tenants.", tenantResult.getTenant()));
+			assertTrue(tenantResult.getLatencyReport().getP99() <= latencySlo.toMillis(), String.format("The p99 propagation latency of %s should not exceed the SLO of %s ms.", tenantResult.getTenant(), latencySlo.toMillis()));
+		}
 	}
 
 	@Given("Some AirQuality data is created.")
-	public void push_historical_data_to_orion() throws IOException {
+	public void push_historical_data_to_orion() throws InterruptedException {
 
 		Instant now = Instant.now();
 		String patternFormat = "yyyy-MM-dd'T'hh:mm:ssZ";
 		DateTimeFormatter formatter = DateTimeFormatter.ofPattern(patternFormat)
 				.withZone(ZoneId.systemDefault());
-		URL url = new URL(brokerUrl);
-		OkHttpClient brokerClient = new OkHttpClient();
 		int twoDaysInMinutes = 48 * 60;
 		// send in 5 minute steps
+		List<byte[]> entities = new ArrayList<>();
 		for (int i = 0; i < twoDaysInMinutes; i += 5) {
 			double temp = Math.random() * 20;
 			double humidity = Math.random() * 20;
 			double co = Math.random();
 			double no2 = Math.random();
 
-			HttpUrl orionUrl = new HttpUrl.Builder()
-					.host(url.getHost())
-					.port(url.getPort())
-					.scheme(url.getProtocol())
-					.addPathSegment("v2")
-					.addPathSegment("entities")
-					.addEncodedQueryParameter("options", "upsert")
-					.build();
 			Instant historicalNow = now.minus(Duration.of(i, ChronoUnit.MINUTES));
-			RequestBody entityBody = RequestBody.create(getTestEntity(testEntityId, temp, humidity, co, no2, formatter.format(historicalNow)), MediaType.get("application/json"));
-			Request entityCreationRequest = new Request.Builder()
-					.url(orionUrl)
-					.addHeader("Fiware-Service", fiwareService)
-					.addHeader("Fiware-ServicePath", fiwareServicePath)
-					.addHeader("Authorization", String.format("bearer %s", optionalTokenManager.map(TokenManager::getAccessToken).map(AccessTokenResponse::getToken).orElse("noToken")))
-					.method("POST", entityBody)
-					.build();
-			Response response = brokerClient.newCall(entityCreationRequest).execute();
-			assertTrue(response.code() >= 200 && response.code() < 300, "We expect any kind of successful response.");
+			entities.add(AIR_QUALITY_TEMPLATE.toBytes(testEntityId, formatter.format(historicalNow), temp, humidity, co, no2));
 		}
+
+		EntitySeeder entitySeeder = new EntitySeeder(brokerClient, brokerUrl, fiwareService, fiwareServicePath,
+				seedingBatchSize, seedingMaxInFlight);
+		resourceRegistry.registerEntity(getServicePath(), testEntityId, "AirQualityObserved");
+		EntitySeeder.SeedingResult seedingResult = entitySeeder.seed(entities);
+		scenario.log(seedingResult.toString());
+		assertTrue(seedingResult.getFailures().isEmpty(), String.format("We expect any kind of successful response. Failures: %s", seedingResult.getFailures()));
+	}
+
+	@When("AirQuality load is generated against the broker.")
+	public void generate_load_on_broker() throws InterruptedException {
+
+		Dispatcher loadDispatcher = new Dispatcher();
+		loadDispatcher.setMaxRequests(loadMaxConnections);
+		loadDispatcher.setMaxRequestsPerHost(loadMaxConnections);
+		// the load gets its own dispatcher to not be limited by the shared one, connections are still pooled
+		OkHttpClient loadClient = brokerClient.newBuilder()
+				.dispatcher(loadDispatcher)
+				.build();
+
+		String loadEntityIdPrefix = String.format("%s-load", testEntityId);
+		for (int i = 0; i < loadEntities; i++) {
+			resourceRegistry.registerEntity(getServicePath(), String.format("%s-%s", loadEntityIdPrefix, i), "AirQualityObserved");
+		}
+		LoadGenerator loadGenerator = new LoadGenerator(loadClient, brokerUrl, fiwareService, fiwareServicePath,
+				(entityId, sampleTime) -> AIR_QUALITY_TEMPLATE.toBytes(entityId, DateTimeFormatter.ISO_INSTANT.format(sampleTime), Math.random() * 20, Math.random() * 20, Math.random(), Math.random()));
+		LoadGenerator.LoadResult loadResult;
+		try {
+			loadResult = loadGenerator.run(loadEntityIdPrefix, loadEntities, loadSamples, loadRate, loadRampUp);
+		} finally {
+			// the dispatcher threads are no daemons and would otherwise stay idle for a minute after every run
+			loadDispatcher.executorService().shutdown();
+		}
+		scenario.log(loadResult.toString());
+		assertEquals(0, loadResult.getErrorCount(), "All load requests should be answered successfully.");
+	}
+
+	@When("AirQuality samples tagged with their send time are created.")
+	public void push_tagged_samples_to_orion() {
+
+		propagationLatencyTracker = new PropagationLatencyTracker(quantumLeapClient, quantumLeapUrl, fiwareService, fiwareServicePath,
+				testEntityId, "AirQualityObserved");
+		HttpUrl orionUrl = HttpUrl.get(brokerUrl).newBuilder()
+				.addPathSegment("v2")
+				.addPathSegment("entities")
+				.addEncodedQueryParameter("options", "upsert")
+				.build();
+		resourceRegistry.registerEntity(getServicePath(), testEntityId, "AirQualityObserved");
+		// samples are sent in the background, to measure their propagation while sending
+		latencySampleSending = CompletableFuture.runAsync(() -> {
+			for (int i = 0; i < latencySamples; i++) {
+				// the send time is used as TimeInstant, to identify the sample at QuantumLeap
+				Instant sendTime = Instant.now().truncatedTo(ChronoUnit.MILLIS);
+				RequestBody entityBody = RequestBody.create(AIR_QUALITY_TEMPLATE.toBytes(testEntityId, DateTimeFormatter.ISO_INSTANT.format(sendTime), Math.random() * 20, Math.random() * 20, Math.random(), Math.random()), MediaType.get("application/json"));
+				Request entityCreationRequest = new Request.Builder()
+						.url(orionUrl)
+						.addHeader("Fiware-Service", fiwareService)
+						.addHeader("Fiware-ServicePath", fiwareServicePath)
+						.method("POST", entityBody)
+						.build();
+				try {
+					int responseCode = HttpClients.executeForCode(brokerClient, entityCreationRequest);
+					assertTrue(responseCode >= 200 && responseCode < 300, "We expect any kind of successful response.");
+					propagationLatencyTracker.sampleSent(sendTime);
+					Thread.sleep(latencySampleInterval.toMillis());
+				} catch (IOException | InterruptedException e) {
+					throw new CompletionException(e);
+				}
+			}
+		}, RequestExecutor.getExecutor());
+	}
+
+	@Then("The samples should be available in QuantumLeap within the latency SLO.")
+	public void verify_propagation_latency() throws IOException, InterruptedException {
+
+		PropagationLatencyTracker.LatencyReport latencyReport = propagationLatencyTracker.awaitPropagation(latencySampleSending, latencyTimeout, Duration.ofMillis(50), Duration.ofSeconds(2));
+		// fail on errors while sending
+		latencySampleSending.join();
+		scenario.log(latencyReport.toString());
+
+		File reportFile = new File(latencyReportFile);
+		Optional.ofNullable(reportFile.getParentFile()).ifPresent(File::mkdirs);
+		new ObjectMapper().writerWithDefaultPrettyPrinter().writeValue(reportFile, latencyReport);
+
+		assertEquals(0, latencyReport.getMissing(), "All samples should arrive at QuantumLeap.");
+		assertTrue(latencyReport.getP99() <= latencySlo.toMillis(), String.format("The p99 propagation latency of %s ms should not exceed the SLO of %s ms.", latencyReport.getP99(), latencySlo.toMillis()));
+	}
+
+	@Then("All samples should be delivered to the notification sink in order.")
+	public void verify_notification_delivery() throws InterruptedException {
+		// fail on errors while sending
+		latencySampleSending.join();
+		boolean delivered = notificationSink.awaitNotifications(testEntityId, latencySamples, latencyTimeout);
+		NotificationSink.SinkReport sinkReport = notificationSink.getReport(testEntityId);
+		scenario.log(sinkReport.toString());
+
+		assertTrue(delivered, String.format("All %s samples should be delivered to the sink, received %s.", latencySamples, sinkReport.getDistinct()));
+		assertEquals(0, sinkReport.getDuplicates(), "No sample should be delivered twice.");
+		assertEquals(0, sinkReport.getOutOfOrder(), "The samples should be delivered in the order they were sent.");
+	}
+
+	@When("AirQuality data is written at a steady rate for the soak duration.")
+	public void soak_broker() throws InterruptedException {
+		List<String> soakEntityIds = new ArrayList<>();
+		for (int i = 0; i < soakEntities; i++) {
+			String soakEntityId = String.format("%s-soak-%s", testEntityId, i);
+			soakEntityIds.add(soakEntityId);
+			resourceRegistry.registerEntity(getServicePath(), soakEntityId, "AirQualityObserved");
+		}
+		SoakRunner soakRunner = new SoakRunner(brokerClient, brokerUrl, quantumLeapClient, quantumLeapUrl, fiwareService, fiwareServicePath, "AirQualityObserved",
+				(entityId, sampleTime) -> AIR_QUALITY_TEMPLATE.toBytes(entityId, DateTimeFormatter.ISO_INSTANT.format(sampleTime), Math.random() * 20, Math.random() * 20, Math.random(), Math.random()));
+		soakResult = soakRunner.run(soakEntityIds, soakRate, soakDuration, soakFreshnessInterval, soakWindow, soakMaxInFlight, soakRetainedWindows, new File(soakSnapshotFile));
+		soakResult.getWindows().forEach(window -> scenario.log(window.toString()));
+		scenario.log(soakResult.toString());
+	}
+
+	@Then("The platform should keep up with the soak without errors or decay.")
+	public void verify_soak() {
+		assertTrue(soakResult.getErrorRate() <= soakMaxErrorRate, String.format("The error rate of %.4f should not exceed %s.", soakResult.getErrorRate(), soakMaxErrorRate));
+		SoakRunner.WindowSnapshot lastWindow = soakResult.getLastSampledWindow().orElseThrow(() -> new AssertionError("The freshness should have been sampled during the soak."));
+		assertTrue(lastWindow.getFreshnessMax() <= soakMaxFreshness.toMillis(), String.format("The data in QuantumLeap should not be older than %s ms at the end of the soak, was %s ms.", soakMaxFreshness.toMillis(), lastWindow.getFreshnessMax()));
+		assertTrue(soakResult.getThroughputDecay() <= soakMaxThroughputDecay, String.format("The throughput should not decay by more than %s, decayed by %.3f.", soakMaxThroughputDecay, soakResult.getThroughputDecay()));
+	}
+
+	@Given("A large AirQuality history is backfilled into QuantumLeap.")
+	public void backfill_history() throws InterruptedException, IOException {
+		List<String> historyEntityIds = new ArrayList<>();
+		for (int i = 0; i < historyEntities; i++) {
+			String historyEntityId = String.format("%s-history-%s", testEntityId, i);
+			historyEntityIds.add(historyEntityId);
+			if (!historyKeep) {
+				resourceRegistry.registerEntity(getServicePath(), historyEntityId, "AirQualityObserved");
+			}
+		}
+		HistoryBackfill historyBackfill = new HistoryBackfill(quantumLeapClient, quantumLeapUrl, fiwareService, fiwareServicePath,
+				AIR_QUALITY_TEMPLATE, new File(historyCheckpointFile));
+		HistoryBackfill.BackfillResult backfillResult = historyBackfill.run(historyEntityIds, historyEnd.minus(historySpan), historyEnd,
+				historyStep, historyBatchSize, historyMaxInFlight);
+		scenario.log(backfillResult.toString());
+		assertTrue(backfillResult.getFailures().isEmpty(), String.format("All chunks should be backfilled, failed: %s", backfillResult.getFailures()));
+	}
+
+	@When("The history is queried over growing time ranges and aggregations.")
+	public void time_history_queries() throws IOException {
+		if (historyQueryRepetitions < 1) {
+			throw new IllegalArgumentException("Every history query needs to be executed at least once.");
+		}
+		Optional<GrafanaApiVerifier> optionalGrafanaApiVerifier = Optional.of(historyQueryDashboardName)
+				.filter(dashboardName -> !dashboardName.isEmpty())
+				.map(dashboardName -> new GrafanaApiVerifier(HttpClients.get(Endpoint.GRAFANA), grafanaUrl, grafanaUser, grafanaPassword));
+		historyQueryTimer = new HistoryQueryTimer(quantumLeapClient, quantumLeapUrl, fiwareService, fiwareServicePath,
+				optionalGrafanaApiVerifier.orElse(null));
+		historyQueryTimer.timeQuantumLeap(String.format("%s-history-0", testEntityId), "AirQualityObserved", historyEnd,
+				historyQueryRanges, historyQueryAggregations, historyQueryLimit, historyQueryRepetitions);
+		if (optionalGrafanaApiVerifier.isPresent()) {
+			historyQueryTimer.timeGrafana(historyQueryDashboardName, historyEnd, historyQueryRanges, historyQueryRepetitions);
+		}
+		historyQueryTimer.getTimings().forEach(timing -> scenario.log(timing.toString()));
+		historyQueryTimer.writeReport(new File(historyQueryReportFile));
+	}
+
+	@Then("All history queries should stay within the budget.")
+	public void verify_history_queries() {
+		List<String> slowQueries = historyQueryTimer.getTimings().stream()
+				.filter(timing -> timing.getP50Ms() > historyQueryBudget.toMillis())
+				.map(HistoryQueryTimer.QueryTiming::toString)
+				.collect(Collectors.toList());
+		assertTrue(slowQueries.isEmpty(), String.format("No history query should take longer than %s ms, exceeded: %s", historyQueryBudget.toMillis(), slowQueries));
 	}
 
 	@When("The user logs into Grafana as an admin.")
 	public void login_to_grafana_as_admin() throws InterruptedException {
-		WebElement userInput = webDriver.findElement(By.name("user"));
-		WebElement passwordInput = webDriver.findElement(By.name("password"));
-		WebElement loginButton = webDriver.findElement(By.className("css-6sxr68-button"));
+		// the login through the UI was already verified by an earlier scenario, reuse its session
+		if (GrafanaSessionCache.restore(webDriver)) {
+			webDriver.get(grafanaUrl);
+			if (!isOnLoginPage()) {
+				pageReadiness.until("login_to_grafana_as_admin", ExpectedConditions.titleIs("Home - Grafana"));
+				assertEquals("Home - Grafana", webDriver.getTitle(), "The user should now be on the home-screen.");
+				return;
+			}
+			// grafana did not accept the session anymore
+			GrafanaSessionCache.invalidate();
+		}
+
+		WebElement userInput = pageReadiness.findElement("login_to_grafana_as_admin", By.name("user"));
+		WebElement passwordInput = pageReadiness.findElement("login_to_grafana_as_admin", By.name("password"));
+		WebElement loginButton = pageReadiness.findElement("login_to_grafana_as_admin", By.className("css-6sxr68-button"));
 
 		userInput.sendKeys(grafanaUser);
 		passwordInput.sendKeys(grafanaPassword);
 
 		loginButton.click();
 
-		WebDriverWait waitAfterLogin = new WebDriverWait(webDriver, Duration.of(15, ChronoUnit.SECONDS));
-		waitAfterLogin.until(ExpectedConditions.titleIs("Home - Grafana"));
+		pageReadiness.until("login_to_grafana_as_admin", ExpectedConditions.titleIs("Home - Grafana"));
 		assertEquals("Home - Grafana", webDriver.getTitle(), "The user should now be on the home-screen.");
+		GrafanaSessionCache.store(webDriver);
 	}
 
 	@When("The user navigates to the dashboard.")
 	public void move_to_dashboard() {
-		webDriver.get(String.format("%s/d/%s/%s?orgId=1", grafanaUrl, datasourceCheckerDashboardName, datasourceCheckerDashboardName));
+		navigateAuthenticated(String.format("%s/d/%s/%s?orgId=1", grafanaUrl, datasourceCheckerDashboardName, datasourceCheckerDashboardName));
 
-		WebDriverWait waitAfterNavigate = new WebDriverWait(webDriver, Duration.of(15, ChronoUnit.SECONDS));
-		waitAfterNavigate.until(ExpectedConditions.titleIs("Orion datasource checker - Grafana"));
+		pageReadiness.until("move_to_dashboard", ExpectedConditions.titleIs("Orion datasource checker - Grafana"));
 
-		WebElement panelHeader = webDriver.findElement(By.cssSelector("section.panel-container > div:nth-child(1) > header:nth-child(1) > div:nth-child(1) > h2:nth-child(1)"));
+		WebElement panelHeader = pageReadiness.findElement("move_to_dashboard", By.cssSelector("section.panel-container > div:nth-child(1) > header:nth-child(1) > div:nth-child(1) > h2:nth-child(1)"));
 		assertEquals("Timescale DB", panelHeader.getText(), "The timescale db panel should be visible.");
+		if (isApiVerification()) {
+			// the panel values are read through the api, waiting for the rendered panels would only cost time
+			return;
+		}
+		pageReadiness.awaitPanelsLoaded("move_to_dashboard");
+	}
+
+	/**
+	 * Navigates to the given grafana page. If grafana forwards to the login, the cached session is injected and the
+	 * navigation is retried.
+	 */
+	private void navigateAuthenticated(String url) {
+		webDriver.get(url);
+		if (isOnLoginPage() && GrafanaSessionCache.restore(webDriver)) {
+			webDriver.get(url);
+			if (isOnLoginPage()) {
+				GrafanaSessionCache.invalidate();
+			}
+		}
+	}
+
+	private boolean isOnLoginPage() {
+		return webDriver.getCurrentUrl().startsWith(String.format("%s/login", grafanaUrl));
 	}
 
 	@Then("The current air-quality data should be visible.")
-	public void verify_current_data_is_visible() {
+	public void verify_current_data_is_visible() throws IOException {
+
+		if (isApiVerification()) {
+			GrafanaApiVerifier grafanaApiVerifier = new GrafanaApiVerifier(HttpClients.get(Endpoint.GRAFANA), grafanaUrl, grafanaUser, grafanaPassword);
+			assertEquals(1, grafanaApiVerifier.countPanelValue(datasourceCheckerDashboardName, currentDataPanelPosition, testEntityId), "The entity should be there exactly once.");
+			return;
+		}
 
-		List<WebElement> tableRowElements = webDriver.findElements(By.cssSelector(String.format(".table-panel-table > tbody:nth-child(%s) > tr:nth-child(1)", currentDataGridPosition)));
-		assertEquals(1, tableRowElements.size(), "The entity should be there exactly once.");
-		assertEquals(testEntityId, tableRowElements.get(0).findElements(By.tagName("td")).get(0).getText(), "The entry should be the test entity.");
+		List<WebElement> tableRowElements = pageReadiness.findElements("verify_current_data_is_visible", By.cssSelector(String.format(".table-panel-table > tbody:nth-child(%s) > tr", currentDataGridPosition)));
+		// when running in parallel, the table also contains the entities of the other workers
+		long testEntityRows = tableRowElements.stream()
+				.map(row -> row.findElements(By.tagName("td")).get(0).getText())
+				.filter(testEntityId::equals)
+				.count();
+		assertEquals(1, testEntityRows, "The entity should be there exactly once.");
 
 	}
 
 	@Then("The air-quality data history should be visible.")
 	public void verify_historic_data_is_visible() {
 
-		WebElement historicDataTable = webDriver.findElement(By.cssSelector(String.format("div.react-grid-item:nth-child(%s)", historicDataGridPosition)));
+		if (isApiVerification()) {
+			GrafanaApiVerifier grafanaApiVerifier = new GrafanaApiVerifier(HttpClients.get(Endpoint.GRAFANA), grafanaUrl, grafanaUser, grafanaPassword);
+			await("Multiple entries for the test entity should exist in the historic data.")
+					.atMost(readinessTimeout)
+					.until(() -> grafanaApiVerifier.countPanelValue(datasourceCheckerDashboardName, historicDataPanelPosition, testEntityId) > 1);
+			return;
+		}
+
+		WebElement historicDataTable = pageReadiness.findElement("verify_historic_data_is_visible", By.cssSelector(String.format("div.react-grid-item:nth-child(%s)", historicDataGridPosition)));
 
-		await("Multiple entries for the test entity should exist in the historic table.")
-				.atMost(Duration.of(5, ChronoUnit.SECONDS))
-				.until(() -> historicDataTable.findElements(By.xpath(String.format("//*[contains(text(), '%s')]", testEntityId))).size() > 1);
+		// Multiple entries for the test entity should exist in the historic table.
+		pageReadiness.until("verify_historic_data_is_visible", driver -> historicDataTable.findElements(By.xpath(String.format("//*[contains(text(), '%s')]", testEntityId))).size() > 1);
+	}
+
+	private boolean isApiVerification() {
+		return "api".equalsIgnoreCase(verificationMode);
 	}
 
 	@Given("Grafana is deployed.")
 	public void check_grafana_is_deployed() throws IOException {
 
 		URL url = new URL(grafanaUrl);
-		OkHttpClient grafanaClient = new OkHttpClient();
 		Request checkGrafana = new Request.Builder().url(url).build();
-		Response response = grafanaClient.newCall(checkGrafana).execute();
 
-		assertEquals(200, response.code());
+		assertEquals(200, HttpClients.executeForCode(HttpClients.get(Endpoint.GRAFANA), checkGrafana));
 
 	}
 
 	@Then("The user should be able to navigate to Air Quality Data Monitor dashboard.")
 	public void move_to_aqapp_data_monitor_dashboard() {
 
-		webDriver.get(String.format("%s/d/%s/%s?orgId=1", grafanaUrl, airQualityHome, airQualityDataMonitorDashboardName));
+		dashboardPerformance.start();
+		navigateAuthenticated(String.format("%s/d/%s/%s?orgId=1", grafanaUrl, airQualityHome, airQualityDataMonitorDashboardName));
 
-		WebDriverWait waitAfterNavigate = new WebDriverWait(webDriver, Duration.of(15, ChronoUnit.SECONDS));
-		waitAfterNavigate.until(ExpectedConditions.titleIs("Air Quality Data Monitor - Grafana"));
+		pageReadiness.until("move_to_aqapp_data_monitor_dashboard", ExpectedConditions.titleIs("Air Quality Data Monitor - Grafana"));
 
-		WebElement panelHeader = webDriver.findElement(By.cssSelector(".dashboard-title > h1"));
+		WebElement panelHeader = pageReadiness.findElement("move_to_aqapp_data_monitor_dashboard", By.cssSelector(".dashboard-title > h1"));
 		assertEquals("AIR QUALITY DATA MONITOR", panelHeader.getText(), "AIR QUALITY DATA MONITOR");
+		captureDashboardPerformance("move_to_aqapp_data_monitor_dashboard");
 	}
 
 	@Then("The user should be able to navigate to Air Quality Index \\(ICA) dashboard.")
 	public void move_to_aqapp_index_dashboard() {
 
-		List<WebElement> buttonContainerList = webDriver.findElements(By.cssSelector(".button-container"));
+		List<WebElement> buttonContainerList = pageReadiness.findElements("move_to_aqapp_index_dashboard", By.cssSelector(".button-container"));
+		dashboardPerformance.start();
 		buttonContainerList.get(0).click();
 
-		WebDriverWait waitAfterNavigate = new WebDriverWait(webDriver, Duration.of(15, ChronoUnit.SECONDS));
-		waitAfterNavigate.until(ExpectedConditions.titleIs("Air Quality Index (ICA) - Grafana"));
+		pageReadiness.until("move_to_aqapp_index_dashboard", ExpectedConditions.titleIs("Air Quality Index (ICA) - Grafana"));
 
-		WebElement panelHeader = webDriver.findElement(By.cssSelector(".dashboard-title > h1"));
+		WebElement panelHeader = pageReadiness.findElement("move_to_aqapp_index_dashboard", By.cssSelector(".dashboard-title > h1"));
 		assertEquals("AIR QUALITY INDEX (ICA)", panelHeader.getText(), "AIR QUALITY INDEX (ICA)");
-
+		captureDashboardPerformance("move_to_aqapp_index_dashboard");
 	}
 
 	@Then("The user should be able to return to Air Quality Data Monitor dashboard.")
 	public void return_to_aqapp_data_monitor_dashboard() {
 
-		WebElement backButton = webDriver.findElement(By.cssSelector(".back-container-icon"));
+		WebElement backButton = pageReadiness.findElement("return_to_aqapp_data_monitor_dashboard", By.cssSelector(".back-container-icon"));
+		dashboardPerformance.start();
 		backButton.click();
 
-		WebDriverWait waitAfterNavigate = new WebDriverWait(webDriver, Duration.of(15, ChronoUnit.SECONDS));
-		waitAfterNavigate.until(ExpectedConditions.titleIs("Air Quality Data Monitor - Grafana"));
+		pageReadiness.until("return_to_aqapp_data_monitor_dashboard", ExpectedConditions.titleIs("Air Quality Data Monitor - Grafana"));
+		captureDashboardPerformance("return_to_aqapp_data_monitor_dashboard");
+	}
 
+	@Then("The Air Quality dashboards should render within their budgets.")
+	public void verify_aqapp_dashboard_budgets() {
+		List<String> budgetViolations = dashboardPerformance.getBudgetViolations(dashboardRenderBudget, dashboardRenderBudgets,
+				dashboardQueryBudget, dashboardHeapBudgetMb);
+		assertTrue(budgetViolations.isEmpty(), String.format("All dashboards should stay within their budgets: %s", budgetViolations));
+	}
+
+	/**
+	 * Waits for all panels of the current dashboard and reports its browser-side timings.
+	 */
+	private void captureDashboardPerformance(String step) {
+		pageReadiness.awaitPanelsLoaded(step);
+		scenario.log(dashboardPerformance.capture(step).toString());
 	}
 
 	@Then("The user should be able to navigate to Air Quality - Pollutants dashboard.")
 	public void move_to_aqapp_pollutants_dashboard() {
 
-		List<WebElement> buttonContainerList = webDriver.findElements(By.cssSelector(".button-container"));
+		List<WebElement> buttonContainerList = pageReadiness.findElements("move_to_aqapp_pollutants_dashboard", By.cssSelector(".button-container"));
+		dashboardPerformance.start();
 		buttonContainerList.get(1).click();
 
-		WebDriverWait waitAfterNavigate = new WebDriverWait(webDriver, Duration.of(15, ChronoUnit.SECONDS));
-		waitAfterNavigate.until(ExpectedConditions.titleIs("Air Quality - Pollutants - Grafana"));
+		pageReadiness.until("move_to_aqapp_pollutants_dashboard", ExpectedConditions.titleIs("Air Quality - Pollutants - Grafana"));
 
-		WebElement panelHeader = webDriver.findElement(By.cssSelector(".dashboard-title > h1"));
+		WebElement panelHeader = pageReadiness.findElement("move_to_aqapp_pollutants_dashboard", By.cssSelector(".dashboard-title > h1"));
 		assertEquals("AIR QUALITY - POLLUTANTS", panelHeader.getText(), "AIR QUALITY - POLLUTANTS");
-
+		captureDashboardPerformance("move_to_aqapp_pollutants_dashboard");
 	}
 
 	@Then("The user should be able to navigate to Air Quality - Particulate matter dashboard.")
 	public void move_to_aqapp_particulate_matter_dashboard() {
 
-		List<WebElement> buttonContainerList = webDriver.findElements(By.cssSelector(".button-container"));
+		List<WebElement> buttonContainerList = pageReadiness.findElements("move_to_aqapp_particulate_matter_dashboard", By.cssSelector(".button-container"));
+		dashboardPerformance.start();
 		buttonContainerList.get(2).click();
 
-		WebDriverWait waitAfterNavigate = new WebDriverWait(webDriver, Duration.of(15, ChronoUnit.SECONDS));
-		waitAfterNavigate.until(ExpectedConditions.titleIs("Air Quality - Particulate Matter - Grafana"));
+		pageReadiness.until("move_to_aqapp_particulate_matter_dashboard", ExpectedConditions.titleIs("Air Quality - Particulate Matter - Grafana"));
 
-		WebElement panelHeader = webDriver.findElement(By.cssSelector(".dashboard-title > h1"));
+		WebElement panelHeader = pageReadiness.findElement("move_to_aqapp_particulate_matter_dashboard", By.cssSelector(".dashboard-title > h1"));
 		assertEquals("AIR QUALITY - PARTICULATE MATTER", panelHeader.getText(), "AIR QUALITY - PARTICULATE MATTER");
+		captureDashboardPerformance("move_to_aqapp_particulate_matter_dashboard");
 	}
 
 	/**
@@ -343,164 +875,74 @@ public class StepDefinitions {
 	 * - if one of the cleanup steps fails, the other will still run, but the test will be marked as a failure
 	 */
 	@After
-	public void cleanUp() throws MalformedURLException {
-		Optional<Response> subDeletionResponse = Optional.empty();
-		Optional<Response> qlDeletionResponse = Optional.empty();
-		Optional<Response> entityDeletionResponse = Optional.empty();
-
+	public void cleanUp() throws InterruptedException {
 		// cleanUp directly at the broker, to not fail in case of broken policies
-		brokerUrl = Optional.ofNullable(System.getenv("BROKER_URL")).orElse("http://localhost:1026");
-
-		OkHttpClient httpClient = new OkHttpClient();
-		if (subscriptionLocation.isPresent()) {
-
-			// remove subscription from the broker
-			Request subscriptionDeletion = new Request.Builder()
-					.url(String.format("%s/%s", brokerUrl, subscriptionLocation.get()))
-					.method("DELETE", null)
-					.addHeader("Fiware-Service", fiwareService)
-					.addHeader("Fiware-ServicePath", fiwareServicePath)
-					.addHeader("Authorization", String.format("bearer %s", optionalTokenManager.map(TokenManager::getAccessToken).map(AccessTokenResponse::getToken).orElse("noToken")))
-					.build();
+		List<String> cleanupFailures = resourceRegistry.teardown(brokerClient, directBrokerUrl, quantumLeapClient, quantumLeapUrl,
+				cleanupConcurrency, cleanupRetries);
+		// the backfilled history is gone, the checkpoint does not apply anymore
+		if (scenario.getSourceTagNames().contains("@history") && !historyKeep) {
+			new File(historyCheckpointFile).delete();
+		}
+		// the subscriptions are gone, nothing will be notified anymore
+		if (notificationSink != null) {
 			try {
-				subDeletionResponse = Optional.of(httpClient.newCall(subscriptionDeletion).execute());
-			} catch (Exception e) {
-
+				notificationSink.close();
+			} catch (IOException e) {
+				cleanupFailures.add(String.format("Notification sink was not closed: %s", e.getMessage()));
 			}
 		}
 
-		URL ql = new URL(quantumLeapUrl);
-
-		HttpUrl qlUrl = new HttpUrl.Builder()
-				.host(ql.getHost())
-				.port(ql.getPort())
-				.scheme(ql.getProtocol())
-				.addPathSegment("v2")
-				.addPathSegment("entities")
-				.addPathSegment(testEntityId)
-				.addEncodedQueryParameter("type", "AirQualityObserved")
-				.build();
-
-		// remove all the data from quantum leap
-		Request qlDeletion = new Request.Builder()
-				.url(qlUrl)
-				.addHeader("Fiware-Service", fiwareService)
-				.addHeader("Fiware-ServicePath", fiwareServicePath)
-				.addHeader("Authorization", String.format("bearer %s", optionalTokenManager.map(TokenManager::getAccessToken).map(AccessTokenResponse::getToken).orElse("noToken")))
-				.method("DELETE", null)
-				.build();
-		try {
-			qlDeletionResponse = Optional.of(httpClient.newCall(qlDeletion).execute());
-		} catch (Exception e) {
+		if (pageReadiness != null) {
+			scenario.log(pageReadiness.getReport());
 		}
-		// remove data from the broker
-		Request entityDeletion = new Request.Builder()
-				.url(String.format("%s/v2/entities/%s", brokerUrl, testEntityId))
-				.method("DELETE", null)
-				.addHeader("Fiware-Service", fiwareService)
-				.addHeader("Fiware-ServicePath", fiwareServicePath)
-				.addHeader("Authorization", String.format("bearer %s", optionalTokenManager.map(TokenManager::getAccessToken).map(AccessTokenResponse::getToken).orElse("noToken")))
-				.build();
-		try {
-			entityDeletionResponse = Optional.of(httpClient.newCall(entityDeletion).execute());
-		} catch (Exception e) {
+		if (webDriver != null) {
+			// keep the session up to date, grafana might have rotated it during the scenario
+			if (!scenario.isFailed()) {
+				try {
+					GrafanaSessionCache.store(webDriver);
+				} catch (RuntimeException e) {
+					// browser session is broken, the pool will replace it
+				}
+			}
+			WebDriverPool.release(webDriver);
+		}
+		scenario.log(HttpClients.getMetrics());
+		scenario.log(String.format("Requests were executed on %s threads.", RequestExecutor.isVirtual() ? "virtual" : "platform"));
+		optionalTokenProvider.map(TokenProvider::getMetrics).ifPresent(scenario::log);
+		optionalStandInPlatform.map(StandInPlatform::getMetrics).ifPresent(scenario::log);
+
+		if (!cleanupFailures.isEmpty()) {
+			fail(String.format("Cleanup was not successfull: %s", cleanupFailures));
 		}
-		webDriver.quit();
+	}
 
-		if (entityDeletionResponse.map(r -> !r.isSuccessful() && r.code() != 404).orElse(false) ||
-				qlDeletionResponse.map(r -> !r.isSuccessful() && r.code() != 404).orElse(false) ||
-				(subDeletionResponse.map(r -> !r.isSuccessful()).orElse(false) && subscriptionLocation.isPresent())) {
+	/**
+	 * Writes the timings of the run and fails it, if they regressed compared to the baseline report.
+	 */
+	@AfterAll
+	public static void writePerformanceReport() throws IOException {
+		File reportDir = new File(Optional.ofNullable(System.getenv("PERF_REPORT_DIR")).orElse("target/performance"));
+		PerformanceReport.writeJson(new File(reportDir, "performance-report.json"));
+		PerformanceReport.writeCsv(new File(reportDir, "performance-report.csv"));
+		Optional<String> optionalPrometheusFile = Optional.ofNullable(System.getenv("PERF_PROMETHEUS_FILE"));
+		if (optionalPrometheusFile.isPresent()) {
+			PerformanceReport.writePrometheus(new File(optionalPrometheusFile.get()));
+		}
 
-			fail(String.format("Cleanup was not successfull: Entity: %s - QL: %s - Subscription: %s",
-					entityDeletionResponse.map(Response::code).map(String::valueOf).orElse("No response"),
-					qlDeletionResponse.map(Response::code).map(String::valueOf).orElse("No response"),
-					subDeletionResponse.map(Response::code).map(String::valueOf).orElse("No response")));
+		Optional<String> optionalBaselineFile = Optional.ofNullable(System.getenv("PERF_BASELINE_FILE"));
+		if (optionalBaselineFile.isPresent()) {
+			double threshold = Optional.ofNullable(System.getenv("PERF_REGRESSION_THRESHOLD")).map(Double::parseDouble).orElse(0.2);
+			Duration minDelta = Optional.ofNullable(System.getenv("PERF_REGRESSION_MIN_DELTA")).map(Duration::parse).orElse(Duration.ofMillis(100));
+			List<String> regressions = PerformanceReport.compareWithBaseline(new File(optionalBaselineFile.get()), threshold, minDelta);
+			assertTrue(regressions.isEmpty(), String.format("The timings regressed compared to the baseline: %s", regressions));
 		}
 	}
 
-	private String getSubscriptionString(String quantumLeapAddress, String fiwareService, String fiwareServicePath) {
-		return String.format("{\n" +
-				"    \"description\": \"AQ - Orion to QuantumLeap subscription\",\n" +
-				"    \"subject\": {\n" +
-				"        \"entities\": [\n" +
-				"            {\n" +
-				"                \"idPattern\": \".*\",\n" +
-				"                \"type\": \"AirQualityObserved\"\n" +
-				"            }\n" +
-				"        ],\n" +
-				"        \"condition\": {\n" +
-				"            \"attrs\": [\n" +
-				"                \"temperature\"\n" +
-				"            ]\n" +
-				"        }\n" +
-				"    },\n" +
-				"    \"notification\": {\n" +
-				"        \"httpCustom\": {\n" +
-				"            \"url\": \"%s/v2/notify\",\n" +
-				"        	 \"headers\" : { " +
-				"				\"fiware-service\" : \"%s\",		" +
-				"				\"fiware-servicepath\":\"%s\"" +
-				"			 }\n " +
-				"        },\n" +
-				"        \"attrs\": [\n" +
-				"            \"CO\",\n" +
-				"            \"NO2\",\n" +
-				"            \"humidity\",\n" +
-				"            \"temperature\"\n" +
-				"        ],\n" +
-				"        \"metadata\": [\n" +
-				"            \"dateCreated\",\n" +
-				"            \"dateModified\",\n" +
-				"            \"TimeInstant\"\n" +
-				"        ]\n" +
-				"    }\n" +
-				"}", quantumLeapAddress, fiwareService, fiwareServicePath);
-	}
-
-	private String getTestEntity(String id, double temperature, double humidity, double co, double no2, String timeInstant) {
-		return String.format("{\n" +
-				"  \"type\": \"AirQualityObserved\",\n" +
-				"  \"id\": \"%s\",\n" +
-				"  \"temperature\": {\n" +
-				"  	 \"type\": \"Number\", " +
-				"    \"value\": %s,\n" +
-				"    \"metadata\": {" +
-				"		\"TimeInstant\": {" +
-				" 			\"type\":\"DateTime\", " +
-				" 			\"value\":\"%s\" " +
-				" 		}\n" +
-				"	 }\n" +
-				"  },\n" +
-				"  \"humidity\": {\n" +
-				"  	 \"type\": \"Number\", " +
-				"    \"value\": %s,\n" +
-				"    \"metadata\": {" +
-				"		\"TimeInstant\": {" +
-				" 			\"type\":\"DateTime\", " +
-				" 			\"value\":\"%s\" " +
-				" 		}\n" +
-				"	 }\n" +
-				"  },\n" +
-				"  \"co\": {\n" +
-				"  	 \"type\": \"Number\", " +
-				"    \"value\": %s,\n" +
-				"    \"metadata\": {" +
-				"		\"TimeInstant\": {" +
-				" 			\"type\":\"DateTime\", " +
-				" 			\"value\":\"%s\" " +
-				" 		}\n" +
-				"	 }\n" +
-				"  },\n" +
-				"  \"no2\": {\n" +
-				"  	 \"type\": \"Number\", " +
-				"    \"value\": %s,\n" +
-				"    \"metadata\": {" +
-				"		\"TimeInstant\": {" +
-				" 			\"type\":\"DateTime\", " +
-				" 			\"value\":\"%s\" " +
-				" 		}\n" +
-				"	 }\n" +
-				"  }\n" +
-				"}", id, temperature, timeInstant, humidity, timeInstant, co, timeInstant, no2, timeInstant);
+	private static List<String> splitList(String list) {
+		return Arrays.stream(list.split(",")).map(String::trim).filter(entry -> !entry.isEmpty()).collect(Collectors.toList());
+	}
+
+	private ResourceRegistry.ServicePath getServicePath() {
+		return new ResourceRegistry.ServicePath(fiwareService, fiwareServicePath);
 	}
 }
@@ -0,0 +1,35 @@
+package org.fiware.marinerae2e;
+
+import io.cucumber.plugin.ConcurrentEventListener;
+import io.cucumber.plugin.event.EventPublisher;
+import io.cucumber.plugin.event.HookTestStep;
+import io.cucumber.plugin.event.PickleStepTestStep;
+import io.cucumber.plugin.event.TestCaseFinished;
+import io.cucumber.plugin.event.TestStepFinished;
+import org.fiware.marinerae2e.PerformanceReport.Category;
+
+/**
+ * Cucumber plugin recording the wall time of every step, hook and scenario into the PerformanceReport. Hooks are
+ * recorded by their code location, so that e.g. the selenium session creation in setUp shows up on its own.
+ */
+public class StepTimingPlugin implements ConcurrentEventListener {
+
+	@Override
+	public void setEventPublisher(EventPublisher publisher) {
+		publisher.registerHandlerFor(TestStepFinished.class, this::onTestStepFinished);
+		publisher.registerHandlerFor(TestCaseFinished.class, this::onTestCaseFinished);
+	}
+
+	private void onTestStepFinished(TestStepFinished event) {
+		if (event.getTestStep() instanceof PickleStepTestStep) {
+			PerformanceReport.record(Category.STEP, ((PickleStepTestStep) event.getTestStep()).getStep().getText(), event.getResult().getDuration());
+		} else if (event.getTestStep() instanceof HookTestStep) {
+			HookTestStep hookTestStep = (HookTestStep) event.getTestStep();
+			PerformanceReport.record(Category.STEP, String.format("%s hook %s", hookTestStep.getHookType(), hookTestStep.getCodeLocation()), event.getResult().getDuration());
+		}
+	}
+
+	private void onTestCaseFinished(TestCaseFinished event) {
+		PerformanceReport.record(Category.STEP, String.format("Scenario: %s", event.getTestCase().getName()), event.getResult().getDuration());
+	}
+}
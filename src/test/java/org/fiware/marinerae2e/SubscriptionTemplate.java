@@ -0,0 +1,90 @@
+package org.fiware.marinerae2e;
+
+import java.util.List;
+
+/**
+ * Precompiled json template of an NGSIv2 subscription, notifying an http endpoint about all entities of a type. Only
+ * the notification url and the tenant headers are written on rendering.
+ */
+public class SubscriptionTemplate {
+
+	// {"description":"...","subject":{...},"notification":{"httpCustom":{"url":"
+	private final byte[] header;
+	// ","headers":{"fiware-service":"
+	private final byte[] serviceHeader;
+	// ","fiware-servicepath":"
+	private final byte[] servicePathHeader;
+	// "}},"attrs":[...],"metadata":[...]}}
+	private final byte[] trailer;
+
+	private SubscriptionTemplate(String description, String entityType, List<String> conditionAttributes,
+								 List<String> notifiedAttributes, List<String> metadata) {
+		PayloadBuffer buffer = new PayloadBuffer();
+		buffer.writeRaw(PayloadBuffer.encode("{\"description\":\"", description, "\",\"subject\":{\"entities\":[{\"idPattern\":\".*\",\"type\":\""));
+		buffer.writeEscaped(entityType);
+		buffer.writeRaw(PayloadBuffer.encode("\"}],\"condition\":{\"attrs\":"));
+		writeArray(buffer, conditionAttributes);
+		buffer.writeRaw(PayloadBuffer.encode("}},\"notification\":{\"httpCustom\":{\"url\":\""));
+		this.header = buffer.toByteArray();
+		this.serviceHeader = PayloadBuffer.encode("\",\"headers\":{\"fiware-service\":\"");
+		this.servicePathHeader = PayloadBuffer.encode("\",\"fiware-servicepath\":\"");
+		buffer.reset();
+		buffer.writeRaw(PayloadBuffer.encode("\"}},\"attrs\":"));
+		writeArray(buffer, notifiedAttributes);
+		buffer.writeRaw(PayloadBuffer.encode(",\"metadata\":"));
+		writeArray(buffer, metadata);
+		buffer.writeRaw(PayloadBuffer.encode("}}"));
+		this.trailer = buffer.toByteArray();
+	}
+
+	/**
+	 * Compile the template for subscriptions on the given entity type.
+	 *
+	 * @param description         description of the subscription
+	 * @param entityType          type of the entities to subscribe to
+	 * @param conditionAttributes changes of these attributes trigger a notification
+	 * @param notifiedAttributes  attributes to be included in the notification
+	 * @param metadata            metadata to be included in the notification
+	 */
+	public static SubscriptionTemplate compile(String description, String entityType, List<String> conditionAttributes,
+											   List<String> notifiedAttributes, List<String> metadata) {
+		return new SubscriptionTemplate(description, entityType, conditionAttributes, notifiedAttributes, metadata);
+	}
+
+	/**
+	 * Render the subscription into the buffer, after its current content.
+	 *
+	 * @param buffer            buffer to write to
+	 * @param notificationUrl   url to send the notifications to
+	 * @param fiwareService     tenant to be forwarded with the notifications
+	 * @param fiwareServicePath service path to be forwarded with the notifications
+	 */
+	public void render(PayloadBuffer buffer, String notificationUrl, String fiwareService, String fiwareServicePath) {
+		buffer.writeRaw(header);
+		buffer.writeEscaped(notificationUrl);
+		buffer.writeRaw(serviceHeader);
+		buffer.writeEscaped(fiwareService);
+		buffer.writeRaw(servicePathHeader);
+		buffer.writeEscaped(fiwareServicePath);
+		buffer.writeRaw(trailer);
+	}
+
+	public String toString(String notificationUrl, String fiwareService, String fiwareServicePath) {
+		PayloadBuffer buffer = new PayloadBuffer();
+		render(buffer, notificationUrl, fiwareService, fiwareServicePath);
+		return buffer.toString();
+	}
+
+	private static void writeArray(PayloadBuffer buffer, List<String> values) {
+		buffer.writeByte('[');
+		for (int i = 0; i < values.size(); i++) {
+			if (i > 0) {
+				buffer.writeByte(',');
+			}
+			buffer.writeByte('"');
+			buffer.writeEscaped(values.get(i));
+			buffer.writeByte('"');
+		}
+		buffer.writeByte(']');
+	}
+}
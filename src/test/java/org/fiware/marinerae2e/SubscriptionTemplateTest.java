@@ -0,0 +1,109 @@
+package org.fiware.marinerae2e;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+/**
+ * Compares the subscriptions rendered by the SubscriptionTemplate with the ones of the String.format builder it replaced.
+ */
+public class SubscriptionTemplateTest {
+
+	private static final ObjectMapper OBJECT_MAPPER = new ObjectMapper();
+	private static final SubscriptionTemplate TEMPLATE = SubscriptionTemplate.compile("AQ - Orion to QuantumLeap subscription",
+			"AirQualityObserved", List.of("temperature"), List.of("CO", "NO2", "humidity", "temperature"),
+			List.of("dateCreated", "dateModified", "TimeInstant"));
+
+	@Test
+	public void renderSubscription() throws IOException {
+		assertMatchesBuilder("http://quantumleap-quantumleap:8668", "test", "/");
+		assertMatchesBuilder("http://localhost:8668", "tenant-1", "/e2e/run-42");
+		assertMatchesBuilder("https://ql.example.org:443/prefix", "", "");
+	}
+
+	@Test
+	public void renderNonBmpTenants() throws IOException {
+		assertMatchesBuilder("http://localhost:8668", "tenant-\uD83C\uDF21", "/\uD834\uDD1E/\u00e4\u20ac");
+	}
+
+	@Test
+	public void escapeControlCharacters() throws IOException {
+		// the builder did not escape at all, its output would not even be json
+		String fiwareService = "tenant\u0000\u0001\u001f\t\r\n";
+		String fiwareServicePath = "/\"quoted\"/back\\slash\u007f";
+		String notificationUrl = "http://localhost:8668/v2/notify?x=\"\u0008";
+		JsonNode expected = OBJECT_MAPPER.readTree(getSubscriptionString("http://placeholder", "placeholder", "placeholder"));
+		ObjectNode httpCustom = (ObjectNode) expected.path("notification").path("httpCustom");
+		httpCustom.put("url", notificationUrl);
+		((ObjectNode) httpCustom.path("headers"))
+				.put("fiware-service", fiwareService)
+				.put("fiware-servicepath", fiwareServicePath);
+		assertEquals(expected, OBJECT_MAPPER.readTree(TEMPLATE.toString(notificationUrl, fiwareService, fiwareServicePath).getBytes(StandardCharsets.UTF_8)));
+	}
+
+	@Test
+	public void renderAfterBufferContent() throws IOException {
+		PayloadBuffer buffer = new PayloadBuffer(8);
+		buffer.writeByte('[');
+		TEMPLATE.render(buffer, "http://a/v2/notify", "a", "/a");
+		buffer.writeByte(',');
+		TEMPLATE.render(buffer, "http://b/v2/notify", "b", "/b");
+		buffer.writeByte(']');
+		JsonNode expected = OBJECT_MAPPER.readTree(String.format("[%s,%s]", getSubscriptionString("http://a", "a", "/a"),
+				getSubscriptionString("http://b", "b", "/b")));
+		assertEquals(expected, OBJECT_MAPPER.readTree(buffer.toByteArray()));
+	}
+
+	private static void assertMatchesBuilder(String quantumLeapAddress, String fiwareService, String fiwareServicePath) throws IOException {
+		JsonNode expected = OBJECT_MAPPER.readTree(getSubscriptionString(quantumLeapAddress, fiwareService, fiwareServicePath));
+		String rendered = TEMPLATE.toString(String.format("%s/v2/notify", quantumLeapAddress), fiwareService, fiwareServicePath);
+		assertEquals(expected, OBJECT_MAPPER.readTree(rendered.getBytes(StandardCharsets.UTF_8)));
+	}
+
+	// the builder the template replaced, kept as reference
+	private static String getSubscriptionString(String quantumLeapAddress, String fiwareService, String fiwareServicePath) {
+		return String.format("{\n" +
+				"    \"description\": \"AQ - Orion to QuantumLeap subscription\",\n" +
+				"    \"subject\": {\n" +
+				"        \"entities\": [\n" +
+				"            {\n" +
+				"                \"idPattern\": \".*\",\n" +
+				"                \"type\": \"AirQualityObserved\"\n" +
+				"            }\n" +
+				"        ],\n" +
+				"        \"condition\": {\n" +
+				"            \"attrs\": [\n" +
+				"                \"temperature\"\n" +
+				"            ]\n" +
+				"        }\n" +
+				"    },\n" +
+				"    \"notification\": {\n" +
+				"        \"httpCustom\": {\n" +
+				"            \"url\": \"%s/v2/notify\",\n" +
+				"        	 \"headers\" : { " +
+				"				\"fiware-service\" : \"%s\",		" +
+				"				\"fiware-servicepath\":\"%s\"" +
+				"			 }\n " +
+				"        },\n" +
+				"        \"attrs\": [\n" +
+				"            \"CO\",\n" +
+				"            \"NO2\",\n" +
+				"            \"humidity\",\n" +
+				"            \"temperature\"\n" +
+				"        ],\n" +
+				"        \"metadata\": [\n" +
+				"            \"dateCreated\",\n" +
+				"            \"dateModified\",\n" +
+				"            \"TimeInstant\"\n" +
+				"        ]\n" +
+				"    }\n" +
+				"}", quantumLeapAddress, fiwareService, fiwareServicePath);
+	}
+}
@@ -0,0 +1,255 @@
+package org.fiware.marinerae2e;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import okhttp3.HttpUrl;
+import okhttp3.MediaType;
+import okhttp3.OkHttpClient;
+import okhttp3.Request;
+import okhttp3.RequestBody;
+import okhttp3.Response;
+import org.HdrHistogram.Histogram;
+
+import java.io.IOException;
+import java.time.Duration;
+import java.time.Instant;
+import java.time.temporal.ChronoUnit;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.function.BiFunction;
+
+/**
+ * Sends tagged samples of the same entity to many tenants(Fiware-Service and Fiware-ServicePath combinations)
+ * concurrently and tracks their propagation to QuantumLeap per tenant. The samples of every tenant carry the tenant's
+ * marker, which allows to detect data of other tenants in a tenant's history.
+ */
+public class TenantFanOut {
+
+	private static final MediaType JSON = MediaType.get("application/json");
+	private static final ObjectMapper OBJECT_MAPPER = new ObjectMapper();
+	private static final long MAX_TRACKABLE_LATENCY_MICROS = Duration.ofMinutes(1).toNanos() / 1000;
+
+	private final OkHttpClient brokerClient;
+	private final HttpUrl upsertUrl;
+	private final OkHttpClient quantumLeapClient;
+	private final String quantumLeapUrl;
+	private final String entityId;
+	private final String entityType;
+	// creates the payload of a sample, from its TimeInstant and the marker of the tenant
+	private final BiFunction<Instant, Integer, byte[]> payloadFactory;
+
+	public TenantFanOut(OkHttpClient brokerClient, String brokerUrl, OkHttpClient quantumLeapClient, String quantumLeapUrl,
+						String entityId, String entityType, BiFunction<Instant, Integer, byte[]> payloadFactory) {
+		this.brokerClient = brokerClient;
+		this.upsertUrl = HttpUrl.get(brokerUrl).newBuilder()
+				.addPathSegment("v2")
+				.addPathSegment("entities")
+				.addEncodedQueryParameter("options", "upsert")
+				.build();
+		this.quantumLeapClient = quantumLeapClient;
+		this.quantumLeapUrl = quantumLeapUrl;
+		this.entityId = entityId;
+		this.entityType = entityType;
+		this.payloadFactory = payloadFactory;
+	}
+
+	/**
+	 * Runs the fan-out. The tenant's position in the list is used as its marker.
+	 *
+	 * @param tenants     tenants to send the samples to
+	 * @param samples     number of samples per tenant
+	 * @param interval    pause between two samples of a tenant
+	 * @param concurrency maximum number of tenants served at the same time
+	 * @param timeout     maximum time to wait for the samples of a tenant to arrive at QuantumLeap
+	 * @return the results, in the order of the tenants
+	 */
+	public List<TenantResult> run(List<ResourceRegistry.ServicePath> tenants, int samples, Duration interval, int concurrency,
+								  Duration timeout) throws InterruptedException {
+		int tenantConcurrency = Math.max(concurrency, 1);
+		// the tenant tasks block on their senders, thus the senders must not compete with them for the request executor
+		ExecutorService senders = Executors.newFixedThreadPool(tenantConcurrency, runnable -> {
+			Thread thread = new Thread(runnable, "tenant-sender");
+			thread.setDaemon(true);
+			return thread;
+		});
+		List<Future<TenantResult>> tenantResults = new ArrayList<>();
+		try (RequestExecutor.Scope scope = RequestExecutor.openScope(tenantConcurrency)) {
+			for (int marker = 0; marker < tenants.size(); marker++) {
+				ResourceRegistry.ServicePath tenant = tenants.get(marker);
+				int tenantMarker = marker;
+				tenantResults.add(scope.fork(upsertUrl, () -> runTenant(tenant, tenantMarker, samples, interval, timeout, senders)));
+			}
+			scope.join();
+		} catch (ExecutionException e) {
+			throw new IllegalStateException("Fan-out to the tenants failed.", e.getCause());
+		} finally {
+			senders.shutdownNow();
+		}
+		List<TenantResult> results = new ArrayList<>();
+		for (Future<TenantResult> tenantResult : tenantResults) {
+			try {
+				results.add(tenantResult.get());
+			} catch (ExecutionException e) {
+				throw new IllegalStateException("Fan-out to the tenants failed.", e.getCause());
+			}
+		}
+		return results;
+	}
+
+	private TenantResult runTenant(ResourceRegistry.ServicePath tenant, int marker, int samples, Duration interval,
+								   Duration timeout, ExecutorService senders) throws InterruptedException, IOException {
+		PropagationLatencyTracker propagationLatencyTracker = new PropagationLatencyTracker(quantumLeapClient, quantumLeapUrl,
+				tenant.getFiwareService(), tenant.getFiwareServicePath(), entityId, entityType);
+		// only accessed by the sending thread
+		Histogram requestLatencies = new Histogram(MAX_TRACKABLE_LATENCY_MICROS, 3);
+		CompletableFuture<Sending> sending = CompletableFuture.supplyAsync(() -> {
+			long sendingStart = System.nanoTime();
+			int errorCount = 0;
+			Instant lastSample = Instant.EPOCH;
+			for (int i = 0; i < samples; i++) {
+				Instant sendTime = Instant.now().truncatedTo(ChronoUnit.MILLIS);
+				// the TimeInstant identifies the sample, it has to be unique within the tenant
+				while (!sendTime.isAfter(lastSample)) {
+					Thread.onSpinWait();
+					sendTime = Instant.now().truncatedTo(ChronoUnit.MILLIS);
+				}
+				lastSample = sendTime;
+				Request upsertRequest = new Request.Builder()
+						.url(upsertUrl)
+						.addHeader("Fiware-Service", tenant.getFiwareService())
+						.addHeader("Fiware-ServicePath", tenant.getFiwareServicePath())
+						.method("POST", RequestBody.create(payloadFactory.apply(sendTime, marker), JSON))
+						.build();
+				long start = System.nanoTime();
+				try {
+					int responseCode = HttpClients.executeForCode(brokerClient, upsertRequest);
+					requestLatencies.recordValue(Math.min((System.nanoTime() - start) / 1000, MAX_TRACKABLE_LATENCY_MICROS));
+					if (responseCode >= 200 && responseCode < 300) {
+						propagationLatencyTracker.sampleSent(sendTime);
+					} else {
+						errorCount++;
+					}
+					if (!interval.isZero()) {
+						Thread.sleep(interval.toMillis());
+					}
+				} catch (IOException e) {
+					errorCount++;
+				} catch (InterruptedException e) {
+					Thread.currentThread().interrupt();
+					throw new CompletionException(e);
+				}
+			}
+			return new Sending(errorCount, Duration.ofNanos(System.nanoTime() - sendingStart));
+		}, senders);
+
+		// the propagation is tracked while sending
+		PropagationLatencyTracker.LatencyReport latencyReport = propagationLatencyTracker.awaitPropagation(sending, timeout,
+				Duration.ofMillis(50), Duration.ofSeconds(2));
+		Sending sent = sending.join();
+		return new TenantResult(tenant, samples, sent.errorCount, sent.duration, requestLatencies, latencyReport,
+				countForeignSamples(tenant, marker));
+	}
+
+	/**
+	 * Counts the samples in the tenant's history, that do not carry its marker.
+	 */
+	private int countForeignSamples(ResourceRegistry.ServicePath tenant, int marker) throws IOException {
+		Request historyRequest = new Request.Builder()
+				.url(HttpUrl.get(quantumLeapUrl).newBuilder()
+						.addPathSegment("v2")
+						.addPathSegment("entities")
+						.addPathSegment(entityId)
+						.addQueryParameter("type", entityType)
+						.addQueryParameter("attrs", "temperature")
+						.build())
+				.addHeader("Fiware-Service", tenant.getFiwareService())
+				.addHeader("Fiware-ServicePath", tenant.getFiwareServicePath())
+				.build();
+		try (Response response = quantumLeapClient.newCall(historyRequest).execute()) {
+			// nothing arrived, missing samples are reported by the propagation
+			if (!response.isSuccessful()) {
+				return 0;
+			}
+			int foreignSamples = 0;
+			for (JsonNode attribute : OBJECT_MAPPER.readTree(response.body().byteStream()).path("attributes")) {
+				for (JsonNode value : attribute.path("values")) {
+					if (value.asDouble() != marker) {
+						foreignSamples++;
+					}
+				}
+			}
+			return foreignSamples;
+		}
+	}
+
+	private static class Sending {
+
+		private final int errorCount;
+		private final Duration duration;
+
+		private Sending(int errorCount, Duration duration) {
+			this.errorCount = errorCount;
+			this.duration = duration;
+		}
+	}
+
+	/**
+	 * Outcome of the fan-out for a single tenant. Request latencies are in milliseconds.
+	 */
+	public static class TenantResult {
+
+		private final ResourceRegistry.ServicePath tenant;
+		private final int samples;
+		private final int errorCount;
+		private final Duration sendingDuration;
+		private final double requestP50;
+		private final double requestP99;
+		private final PropagationLatencyTracker.LatencyReport latencyReport;
+		private final int foreignSamples;
+
+		public TenantResult(ResourceRegistry.ServicePath tenant, int samples, int errorCount, Duration sendingDuration,
+							Histogram requestLatencies, PropagationLatencyTracker.LatencyReport latencyReport, int foreignSamples) {
+			this.tenant = tenant;
+			this.samples = samples;
+			this.errorCount = errorCount;
+			this.sendingDuration = sendingDuration;
+			this.requestP50 = requestLatencies.getValueAtPercentile(50) / 1000d;
+			this.requestP99 = requestLatencies.getValueAtPercentile(99) / 1000d;
+			this.latencyReport = latencyReport;
+			this.foreignSamples = foreignSamples;
+		}
+
+		public ResourceRegistry.ServicePath getTenant() {
+			return tenant;
+		}
+
+		public int getErrorCount() {
+			return errorCount;
+		}
+
+		public PropagationLatencyTracker.LatencyReport getLatencyReport() {
+			return latencyReport;
+		}
+
+		public int getForeignSamples() {
+			return foreignSamples;
+		}
+
+		public double getSamplesPerSecond() {
+			return samples / Math.max(sendingDuration.toNanos() / 1_000_000_000d, 1e-9);
+		}
+
+		@Override
+		public String toString() {
+			return String.format("%s: %s samples(%s errors) at %.1f samples/s, request p50/p99: %.1f/%.1f ms, propagation p50/p99: %s/%s ms, %s missing, %s foreign.",
+					tenant, samples, errorCount, getSamplesPerSecond(), requestP50, requestP99, latencyReport.getP50(),
+					latencyReport.getP99(), latencyReport.getMissing(), foreignSamples);
+		}
+	}
+}
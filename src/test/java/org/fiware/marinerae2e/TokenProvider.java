@@ -0,0 +1,161 @@
+package org.fiware.marinerae2e;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import okhttp3.Interceptor;
+import okhttp3.Request;
+import org.keycloak.admin.client.KeycloakBuilder;
+import org.keycloak.admin.client.token.TokenManager;
+
+import java.io.IOException;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.Base64;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Provides access tokens from keycloak. Providers are cached for the whole suite, their token is refreshed in the
+ * background before it expires, so that requests never have to wait for keycloak.
+ */
+public class TokenProvider {
+
+	private static final ObjectMapper OBJECT_MAPPER = new ObjectMapper();
+	// time before the expiry the token gets refreshed, at most a fifth of its lifetime
+	private static final Duration REFRESH_BEFORE_EXPIRY = Duration.ofSeconds(30);
+	// time to wait before retrying a failed refresh
+	private static final Duration REFRESH_RETRY = Duration.ofSeconds(5);
+	// minimum lifetime assumed for a fresh token, e.g. if the clock is behind the one of keycloak
+	private static final Duration MIN_LIFETIME = Duration.ofSeconds(10);
+	private static final Map<String, TokenProvider> PROVIDERS = new ConcurrentHashMap<>();
+	private static final ScheduledExecutorService REFRESH_EXECUTOR = Executors.newSingleThreadScheduledExecutor(runnable -> {
+		Thread refreshThread = new Thread(runnable, "token-refresh");
+		refreshThread.setDaemon(true);
+		return refreshThread;
+	});
+
+	private final TokenManager tokenManager;
+
+	private final AtomicLong fetchCount = new AtomicLong();
+	private final AtomicLong totalFetchNanos = new AtomicLong();
+	private final AtomicLong maxFetchNanos = new AtomicLong();
+
+	private volatile String token;
+	private volatile Instant expiry = Instant.EPOCH;
+	private ScheduledFuture<?> scheduledRefresh;
+
+	private TokenProvider(TokenManager tokenManager) {
+		this.tokenManager = tokenManager;
+	}
+
+	/**
+	 * Returns the provider for the given user, creating it on first usage.
+	 */
+	public static TokenProvider getProvider(String keycloakUrl, String realm, String clientId, String clientSecret, String username, String password) {
+		String cacheKey = String.join("|", keycloakUrl, realm, clientId, username);
+		return PROVIDERS.computeIfAbsent(cacheKey, key -> new TokenProvider(KeycloakBuilder.builder()
+				.username(username)
+				.password(password)
+				.clientSecret(clientSecret)
+				.clientId(clientId)
+				.grantType("password")
+				.realm(realm)
+				.serverUrl(keycloakUrl)
+				.build()
+				.tokenManager()));
+	}
+
+	/**
+	 * Returns a valid token. Only fetches one if there is none or it already expired, e.g. since the background
+	 * refresh failed.
+	 */
+	public String getToken() {
+		if (token == null || !Instant.now().isBefore(expiry)) {
+			synchronized (this) {
+				if (token == null || !Instant.now().isBefore(expiry)) {
+					refresh();
+				}
+			}
+		}
+		return token;
+	}
+
+	/**
+	 * Interceptor to add the token to all requests of a client.
+	 */
+	public Interceptor asInterceptor() {
+		return chain -> {
+			Request authorizedRequest = chain.request().newBuilder()
+					.header("Authorization", String.format("bearer %s", getToken()))
+					.build();
+			return chain.proceed(authorizedRequest);
+		};
+	}
+
+	public String getMetrics() {
+		long fetches = fetchCount.get();
+		return String.format("Token fetches: %s - refresh latency(ms): avg %s, max %s.",
+				fetches,
+				fetches == 0 ? 0 : TimeUnit.NANOSECONDS.toMillis(totalFetchNanos.get() / fetches),
+				TimeUnit.NANOSECONDS.toMillis(maxFetchNanos.get()));
+	}
+
+	private synchronized void refresh() {
+		long start = System.nanoTime();
+		String freshToken = tokenManager.grantToken().getToken();
+		long fetchTime = System.nanoTime() - start;
+		fetchCount.incrementAndGet();
+		totalFetchNanos.addAndGet(fetchTime);
+		maxFetchNanos.accumulateAndGet(fetchTime, Math::max);
+
+		Instant now = Instant.now();
+		Duration lifetime = Duration.between(now, getExpiry(freshToken));
+		if (lifetime.compareTo(MIN_LIFETIME) < 0) {
+			// an already expired token would otherwise be refreshed in a tight loop
+			lifetime = MIN_LIFETIME;
+		}
+		expiry = now.plus(lifetime);
+		token = freshToken;
+		Duration refreshBefore = lifetime.dividedBy(5).compareTo(REFRESH_BEFORE_EXPIRY) < 0 ? lifetime.dividedBy(5) : REFRESH_BEFORE_EXPIRY;
+		scheduleRefresh(lifetime.minus(refreshBefore));
+	}
+
+	private synchronized void scheduleRefresh(Duration delay) {
+		if (scheduledRefresh != null) {
+			scheduledRefresh.cancel(false);
+		}
+		scheduledRefresh = REFRESH_EXECUTOR.schedule(() -> {
+			try {
+				refresh();
+			} catch (RuntimeException e) {
+				// keycloak not reachable at the moment, the current token stays valid until its expiry
+				scheduleRefresh(REFRESH_RETRY);
+			}
+		}, Math.max(delay.toMillis(), 0), TimeUnit.MILLISECONDS);
+	}
+
+	/**
+	 * Reads the expiry from the exp-claim of the jwt, fails if the claim is missing.
+	 */
+	private static Instant getExpiry(String jwt) {
+		String[] jwtParts = jwt.split("\\.");
+		if (jwtParts.length < 2) {
+			throw new IllegalArgumentException("The access token is not a valid jwt.");
+		}
+		JsonNode expClaim;
+		try {
+			expClaim = OBJECT_MAPPER.readTree(Base64.getUrlDecoder().decode(jwtParts[1])).path("exp");
+		} catch (IOException e) {
+			throw new IllegalArgumentException("Was not able to read the expiry from the access token.", e);
+		}
+		if (!expClaim.isNumber() || !expClaim.canConvertToLong()) {
+			throw new IllegalArgumentException("The access token does not contain an expiry.");
+		}
+		return Instant.ofEpochSecond(expClaim.asLong());
+	}
+}
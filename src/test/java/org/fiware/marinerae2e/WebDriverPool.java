@@ -0,0 +1,116 @@
+package org.fiware.marinerae2e;
+
+import org.openqa.selenium.JavascriptExecutor;
+import org.openqa.selenium.WebDriver;
+import org.openqa.selenium.chrome.ChromeOptions;
+import org.openqa.selenium.remote.RemoteWebDriver;
+
+import java.net.MalformedURLException;
+import java.net.URL;
+import java.time.Duration;
+import java.util.Optional;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Suite-wide pool of remote selenium sessions. Sessions are reused by subsequent scenarios, since starting a new
+ * browser is expensive. Before being handed out, a session is checked to still be alive, when returned its state is
+ * reset. The pool is bounded by SELENIUM_POOL_SIZE, thus a grid with multiple nodes can serve parallel workers.
+ */
+public final class WebDriverPool {
+
+	private static final int POOL_SIZE = Optional.ofNullable(System.getenv("SELENIUM_POOL_SIZE")).map(Integer::parseInt).orElse(ParallelExecution.getParallelism());
+	private static final Duration ACQUIRE_TIMEOUT = Optional.ofNullable(System.getenv("SELENIUM_ACQUIRE_TIMEOUT")).map(Duration::parse).orElse(Duration.ofMinutes(5));
+
+	// sessions that are currently not used by any scenario
+	private static final BlockingQueue<WebDriver> IDLE_DRIVERS = new LinkedBlockingQueue<>();
+	// all sessions created by the pool, to quit them on shutdown
+	private static final ConcurrentHashMap.KeySetView<WebDriver, Boolean> ALL_DRIVERS = ConcurrentHashMap.newKeySet();
+	// permits to own a session, limits the pool to its size
+	private static final Semaphore PERMITS = new Semaphore(POOL_SIZE);
+
+	static {
+		Runtime.getRuntime().addShutdownHook(new Thread(() -> ALL_DRIVERS.forEach(WebDriverPool::quitQuietly)));
+	}
+
+	private WebDriverPool() {
+		// prevent instantiation
+	}
+
+	/**
+	 * Get a healthy session from the pool, create a new one if none is idle. Blocks if all sessions are in use.
+	 */
+	public static WebDriver acquire(String remoteDriverUrl) throws MalformedURLException, InterruptedException {
+		if (!PERMITS.tryAcquire(ACQUIRE_TIMEOUT.toMillis(), TimeUnit.MILLISECONDS)) {
+			throw new IllegalStateException(String.format("No selenium session got available within %s.", ACQUIRE_TIMEOUT));
+		}
+		try {
+			WebDriver idleDriver;
+			while ((idleDriver = IDLE_DRIVERS.poll()) != null) {
+				if (isHealthy(idleDriver)) {
+					return idleDriver;
+				}
+				discard(idleDriver);
+			}
+			WebDriver webDriver = new RemoteWebDriver(new URL(remoteDriverUrl), new ChromeOptions());
+			// no implicit waits, all waiting is done explicitly through the PageReadiness
+			webDriver.manage().timeouts().implicitlyWait(Duration.ZERO);
+			ALL_DRIVERS.add(webDriver);
+			return webDriver;
+		} catch (MalformedURLException | RuntimeException e) {
+			PERMITS.release();
+			throw e;
+		}
+	}
+
+	/**
+	 * Return the session to the pool. Cookies and storage of the current page are cleared, so that the next scenario
+	 * starts with a fresh(logged-out) browser.
+	 */
+	public static void release(WebDriver webDriver) {
+		try {
+			webDriver.manage().deleteAllCookies();
+			clearStorage(webDriver);
+			webDriver.get("about:blank");
+			IDLE_DRIVERS.add(webDriver);
+		} catch (RuntimeException e) {
+			// session broke during the scenario, it will be replaced on next acquire
+			discard(webDriver);
+		} finally {
+			PERMITS.release();
+		}
+	}
+
+	private static void clearStorage(WebDriver webDriver) {
+		try {
+			((JavascriptExecutor) webDriver).executeScript("window.localStorage.clear(); window.sessionStorage.clear();");
+		} catch (RuntimeException e) {
+			// pages without an origin(e.g. about:blank) do not provide storage
+		}
+	}
+
+	private static boolean isHealthy(WebDriver webDriver) {
+		try {
+			webDriver.getWindowHandle();
+			return true;
+		} catch (RuntimeException e) {
+			return false;
+		}
+	}
+
+	private static void discard(WebDriver webDriver) {
+		ALL_DRIVERS.remove(webDriver);
+		quitQuietly(webDriver);
+	}
+
+	private static void quitQuietly(WebDriver webDriver) {
+		try {
+			webDriver.quit();
+		} catch (RuntimeException e) {
+			// session is already gone
+		}
+	}
+}
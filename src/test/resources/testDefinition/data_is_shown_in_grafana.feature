@@ -1,6 +1,6 @@
 Feature: Data is shown in grafana.
 
-  @unsecured
+  @unsecured @browser
   Scenario: Create AirQuality data directly through the broker, login to grafana and watch it.
     Given The subscription between Orion-LD and QuantumLeap is created.
     And Some AirQuality data is created.
@@ -10,7 +10,7 @@ Feature: Data is shown in grafana.
     Then The current air-quality data should be visible.
     And The air-quality data history should be visible.
 
-  @secured
+  @secured @browser
   Scenario: Create AirQuality data through the PEP-Proxy, login to grafana and watch it.
     Given The keycloak connection is setup.
     And The subscription between Orion-LD and QuantumLeap is created.
@@ -21,7 +21,43 @@ Feature: Data is shown in grafana.
     Then The current air-quality data should be visible.
     And The air-quality data history should be visible.
   
-  @aqapp
+  @load @optin
+  Scenario: Generate AirQuality load through the broker and measure its latency.
+    Given The subscription between Orion-LD and QuantumLeap is created.
+    When AirQuality load is generated against the broker.
+
+  @latency @optin
+  Scenario: Create tagged AirQuality data through the broker and measure its propagation to QuantumLeap.
+    Given The subscription between Orion-LD and QuantumLeap is created.
+    When AirQuality samples tagged with their send time are created.
+    Then The samples should be available in QuantumLeap within the latency SLO.
+
+  @notification @optin
+  Scenario: Create tagged AirQuality data through the broker and verify its delivery to a subscribed notification sink.
+    Given The subscription between Orion-LD and QuantumLeap is created.
+    And A notification sink is subscribed to AirQuality data.
+    When AirQuality samples tagged with their send time are created.
+    Then All samples should be delivered to the notification sink in order.
+
+  @multitenant @optin
+  Scenario: Create AirQuality data for many tenants concurrently and verify their isolation in QuantumLeap.
+    Given Subscriptions between Orion-LD and QuantumLeap are created for all tenants.
+    When AirQuality samples are created for all tenants concurrently.
+    Then Every tenant should only see its own data in QuantumLeap.
+
+  @soak @optin
+  Scenario: Write AirQuality data at a steady rate for hours and continuously verify its freshness in QuantumLeap.
+    Given The subscription between Orion-LD and QuantumLeap is created.
+    When AirQuality data is written at a steady rate for the soak duration.
+    Then The platform should keep up with the soak without errors or decay.
+
+  @history @optin
+  Scenario: Backfill a large AirQuality history into QuantumLeap and time its queries in QuantumLeap and Grafana.
+    Given A large AirQuality history is backfilled into QuantumLeap.
+    When The history is queried over growing time ranges and aggregations.
+    Then All history queries should stay within the budget.
+
+  @aqapp @browser
   Scenario: Check that the Air Quality Application is deployed.
     Given Grafana is deployed.
     When A user opens Grafana.
@@ -32,3 +68,14 @@ Feature: Data is shown in grafana.
     And The user should be able to navigate to Air Quality - Pollutants dashboard.
     And The user should be able to return to Air Quality Data Monitor dashboard.
     And The user should be able to navigate to Air Quality - Particulate matter dashboard.
+    And The Air Quality dashboards should render within their budgets.
+
+  @standin
+  Scenario: Create AirQuality data against the in-process stand-in platform and measure its propagation.
+    Given The stand-in platform is running.
+    And The subscription between Orion-LD and QuantumLeap is created.
+    And Some AirQuality data is created.
+    And A notification sink is subscribed to AirQuality data.
+    When AirQuality samples tagged with their send time are created.
+    Then The samples should be available in QuantumLeap within the latency SLO.
+    And All samples should be delivered to the notification sink in order.